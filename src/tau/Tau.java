@@ -8,17 +8,37 @@ import tau.parser.*;
 import tau.ast.*;
 import tau.interpreter.*;
 import tau.analyzer.*;
+import tau.optimizer.*;
+import tau.vm.*;
 
 public class Tau {
 	public static boolean hadError = false;
 	public static boolean hadRuntimeError = false;
 	public static String[] arguments;
+	public static boolean useVM = false;
 	private static final Interpreter interpreter = 
 			new Interpreter();
+	private static final VM vm = 
+			new VM(interpreter);
 	
 	public static void main(String[] args) throws IOException {
+		int flags = 0;
+		while(flags < args.length && args[flags].startsWith("--")) {
+			if(args[flags].equals("--vm")) {
+				useVM = true;
+			} else if(args[flags].equals("--specialize")) {
+				interpreter.specialize = true;
+			} else if(args[flags].equals("--jit")) {
+				interpreter.jit = true;
+			} else {
+				System.out.println("Usage: tau [--vm|--specialize|--jit] ?FILE");
+				return;
+			}
+			flags++;
+		}
+		args = Arrays.copyOfRange(args, flags, args.length);
 		if(args.length > 1 && !args[0].endsWith(".tau")) {
-			System.out.println("Usage: tau ?FILE");
+			System.out.println("Usage: tau [--vm|--specialize|--jit] ?FILE");
 		} else if(args.length > 1 && args[0].endsWith(".tau")) {
 			arguments = args;
 			runFile(args[0]);
@@ -33,46 +53,41 @@ public class Tau {
 		BufferedReader buff = new BufferedReader(reader);
 		for(;;) {
 			System.out.println("> ");
-			run(buff.readLine());
+			run(new Source(buff.readLine()), false);
 		}
 	}
 	
 	private static void runFile(String filePath) {
-		StringBuilder sb = 
-				new StringBuilder("");
-		String line = null;
+		Source source = null;
         try {
-            FileReader fileReader = 
-                new FileReader(filePath);
-            BufferedReader bufferedReader = 
-                new BufferedReader(fileReader);
-
-            while((line = bufferedReader.readLine()) != null) {
-                sb.append(line + " ");
-            }   
-            bufferedReader.close();         
+            source = Source.load(filePath);
         } catch(IOException e) {
         		System.exit(1);
         }
-        run(sb.toString());
+        run(source, true);
         if(hadError)
         		System.exit(65);
         if(hadRuntimeError)
         		System.exit(70);
 	}
 	
-	private static void run(String source) {
-		TScanner scanner = new TScanner(source);
-		List<TToken> tok = scanner.scan();
-		Parser parse = new Parser(tok);
-		List<Stmt> statements = parse.parseTokens();
+	// Only a whole script can tell that nothing rebinds its functions later
+	private static void run(Source source, boolean script) {
+		List<Stmt> statements = new SourceParser(source).parse();
 		if(hadError)
 			return;
-		Analyzer ana = new Analyzer(interpreter);
+		new Inliner(script).inline(statements);
+		new Hoister(script).hoist(statements);
+		Analyzer ana = new Analyzer(script);
 		ana.resolve(statements);
 		if(hadError)
 			return;
-		interpreter.interpret(statements);
+		new Optimizer().optimize(statements);
+		if(useVM) {
+			vm.interpret(statements);
+		} else {
+			interpreter.interpret(statements);
+		}
 		if(hadError)
 			return;
 	}
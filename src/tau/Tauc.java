@@ -0,0 +1,153 @@
+package tau;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.jar.*;
+import javax.tools.*;
+import tau.scanner.*;
+import tau.literal.*;
+import tau.parser.*;
+import tau.ast.*;
+import tau.analyzer.*;
+import tau.optimizer.*;
+import tau.aot.*;
+
+// Ahead-of-time compiler: translates a script to a Java class that runs
+// against tau.runtime and tau.core, then compiles it with the JDK's javac
+public class Tauc {
+	public static void main(String[] args) throws IOException {
+		if(args.length < 1 || args.length > 2 || !args[0].endsWith(".tau")) {
+			System.out.println("Usage: tauc FILE.tau ?OUT(.jar)");
+			return;
+		}
+		String output = args.length > 1 ? args[1] : ".";
+		String className = className(args[0]);
+		String source = translate(Source.load(args[0]), className, args[0]);
+		if(source == null)
+			System.exit(65);
+		JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+		if(javac == null) {
+			System.err.println("tauc needs a JDK to compile classes.");
+			System.exit(1);
+		}
+		Path work = Files.createTempDirectory("tauc");
+		int status;
+		try {
+			status = compile(javac, work, source, className, output);
+		} finally {
+			delete(work);
+		}
+		if(status != 0)
+			System.exit(1);
+	}
+	
+	private static int compile(JavaCompiler javac, Path work, String source,
+			String className, String output) throws IOException {
+		Path file = work.resolve(className + ".java");
+		Files.write(file, source.getBytes());
+		Path classes = output.endsWith(".jar") ? work : Paths.get(output);
+		Files.createDirectories(classes);
+		int status = javac.run(null, null, null, "-nowarn",
+				"-classpath", System.getProperty("java.class.path"),
+				"-d", classes.toString(), file.toString());
+		if(status == 0 && output.endsWith(".jar"))
+			jar(classes, className, Paths.get(output));
+		return status;
+	}
+	
+	private static void delete(Path directory) throws IOException {
+		List<Path> paths = new ArrayList<>();
+		try(java.util.stream.Stream<Path> walk = Files.walk(directory)) {
+			walk.forEach(paths::add);
+		}
+		Collections.reverse(paths);
+		for(Path path : paths) {
+			Files.deleteIfExists(path);
+		}
+	}
+	
+	private static String translate(Source source, String className,
+			String path) {
+		List<Stmt> statements = new SourceParser(source).parse();
+		if(Tau.hadError)
+			return null;
+		new Inliner(true).inline(statements);
+		new Hoister(true).hoist(statements);
+		Analyzer ana = new Analyzer(true);
+		ana.resolve(statements);
+		if(Tau.hadError)
+			return null;
+		new Optimizer().optimize(statements);
+		return new Translator(className, path).translate(statements);
+	}
+	
+	private static String className(String path) {
+		String name = Paths.get(path).getFileName().toString();
+		name = name.substring(0, name.length() - ".tau".length());
+		StringBuilder builder = new StringBuilder();
+		for(char c : name.toCharArray()) {
+			builder.append(Character.isJavaIdentifierPart(c) ? c : '_');
+		}
+		if(builder.length() == 0 || !Character.isJavaIdentifierStart(builder.charAt(0)))
+			builder.insert(0, '_');
+		builder.setCharAt(0, Character.toUpperCase(builder.charAt(0)));
+		return builder.toString();
+	}
+	
+	private static void jar(Path classes, String className, Path jar) throws IOException {
+		Manifest manifest = new Manifest();
+		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, className);
+		try(JarOutputStream out = new JarOutputStream(
+				Files.newOutputStream(jar), manifest);
+				DirectoryStream<Path> files = Files.newDirectoryStream(classes, "*.class")) {
+			for(Path file : files) {
+				out.putNextEntry(new JarEntry(file.getFileName().toString()));
+				out.write(Files.readAllBytes(file));
+				out.closeEntry();
+			}
+			runtime(out);
+		}
+	}
+	
+	// The jar runs on its own, so it carries the tau classes tauc itself
+	// was loaded from, a directory or a jar
+	private static void runtime(JarOutputStream out) throws IOException {
+		Path home;
+		try {
+			home = Paths.get(Tauc.class.getProtectionDomain()
+					.getCodeSource().getLocation().toURI());
+		} catch(java.net.URISyntaxException e) {
+			throw new IOException(e);
+		}
+		if(Files.isDirectory(home)) {
+			List<Path> files = new ArrayList<>();
+			try(java.util.stream.Stream<Path> walk =
+					Files.walk(home.resolve("tau"))) {
+				walk.filter(path -> path.toString().endsWith(".class"))
+						.forEach(files::add);
+			}
+			for(Path file : files) {
+				String name = home.relativize(file).toString()
+						.replace(File.separatorChar, '/');
+				out.putNextEntry(new JarEntry(name));
+				out.write(Files.readAllBytes(file));
+				out.closeEntry();
+			}
+			return;
+		}
+		try(JarFile jar = new JarFile(home.toFile())) {
+			for(JarEntry entry : Collections.list(jar.entries())) {
+				if(!entry.getName().startsWith("tau/") ||
+						!entry.getName().endsWith(".class"))
+					continue;
+				out.putNextEntry(new JarEntry(entry.getName()));
+				try(InputStream in = jar.getInputStream(entry)) {
+					in.transferTo(out);
+				}
+				out.closeEntry();
+			}
+		}
+	}
+}
@@ -2,18 +2,94 @@ package tau.analyzer;
 
 import java.util.*;
 import tau.ast.*;
-import tau.interpreter.*;
+import tau.ast.Expr.Type;
 import tau.literal.*;
 import tau.error.*;
 import tau.error.Error;
 
 public class Analyzer implements Expr.Visitor<Void>, 
 Stmt.Visitor<Void> {
-	private final Interpreter interpreter;
-	private final Stack<Map<String, Boolean>> scopes =
+	private final Stack<Scope> scopes =
 			new Stack<>();
 	private FunctionType currentFunction =
 			FunctionType.NONE;
+	private TToken currentName = null;
+	private FunctionScope currentScope = 
+			new FunctionScope(null, null, 0);
+	// Whether only this code can touch the top-level names, not so for the
+	// prompt or an import
+	private final boolean globals;
+	// Code the Analyzer doesn't see, imports and map values, can change
+	// any global
+	private boolean open = false;
+	private final Map<String, Binding> globalBindings = 
+			new HashMap<>();
+	private final List<Binding> bindings = 
+			new ArrayList<>();
+	// What each Variable and Assign node resolved to
+	private final Map<Expr, Binding> resolved = 
+			new IdentityHashMap<>();
+	private final Map<Expr.Function, Binding[]> parameters = 
+			new HashMap<>();
+	// The values each function returns, null when it can return none
+	private final Map<Expr.Function, List<Expr>> returns = 
+			new HashMap<>();
+	private final List<Expr.Call> calls = 
+			new ArrayList<>();
+	private final List<Expr> expressions = 
+			new ArrayList<>();
+	
+	private static class Binding {
+		final int slot;
+		// Whether the name has finished its initializer yet
+		boolean defined = false;
+		boolean captured = false;
+		boolean assigned = false;
+		// Captured before it was defined, like a local function naming itself
+		boolean early = false;
+		Stmt declaration = null;
+		Expr.Function function = null;
+		// The Variable and Assign nodes resolved to it
+		final List<Expr> references = 
+				new ArrayList<>();
+		boolean global = false;
+		int declarations = 0;
+		// Expressions whose values it can be given, null when it can hold
+		// anything
+		List<Expr> values = new ArrayList<>();
+		Type type = Type.NONE;
+		// For a name that always holds the same function, what calls to it
+		// return
+		Binding result = null;
+		
+		Binding(int slot) {
+			this.slot = slot;
+		}
+	}
+	
+	private static class Scope {
+		final Map<String, Binding> bindings = 
+				new HashMap<>();
+	}
+	
+	// The scopes of one function body, from base up, plus what the body
+	// captures from the functions around it
+	private static class FunctionScope {
+		final FunctionScope enclosing;
+		final Expr.Function declaration;
+		final int base;
+		final List<Expr.Function.Capture> captures = 
+				new ArrayList<>();
+		final Map<Binding, Integer> captured = 
+				new HashMap<>();
+		
+		FunctionScope(FunctionScope enclosing, Expr.Function declaration,
+				int base) {
+			this.enclosing = enclosing;
+			this.declaration = declaration;
+			this.base = base;
+		}
+	}
 	
 	private enum FunctionType {
 	    NONE,
@@ -21,33 +97,40 @@ Stmt.Visitor<Void> {
 	    METHOD
 	}
 	
-	public Analyzer(Interpreter interpreter) {
-		this.interpreter = interpreter;
+	public Analyzer(boolean globals) {
+		this.globals = globals;
 	}
 	
 	public void resolve(List<Stmt> statements) {
-	    for (Stmt statement : statements) {
-	    		resolve(statement);
-	    }
+	    resolveAll(statements);
+	    infer();
 	}
 	
 	@Override
 	public Void visitBlock(Stmt.Block stmt) {
+		stmt.scoped = declares(stmt.statements);
+		if (!stmt.scoped) {
+			resolveAll(stmt.statements);
+			return null;
+		}
 		beginScope();
-		resolve(stmt.statements);
+		resolveAll(stmt.statements);
+		stmt.slots = scopes.peek().bindings.size();
 		endScope();
 		return null;
 	}
 	
 	@Override
 	public Void visitFunction(Expr.Function expr) {
+		resolveFunction(null, expr, FunctionType.FUNCTION);
 		return null;
 	}
 	
 	@Override
 	public Void visitVariable(Expr.Variable expr) {
 	    if (!scopes.isEmpty() &&
-	        scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
+	        scopes.peek().bindings.containsKey(expr.name.lexeme) &&
+	        !scopes.peek().bindings.get(expr.name.lexeme).defined) {
 	    		Error.error(expr.name,
 	          "Cannot read local variable in its own initializer.");
 	    }
@@ -57,19 +140,29 @@ Stmt.Visitor<Void> {
 	
 	@Override
 	public Void visitVar(Stmt.Var stmt) {
-		declare(stmt.name);
+		Binding binding = declare(stmt.name, stmt);
 		if(stmt.initializer != null) {
 			resolve(stmt.initializer);
 		}
 		define(stmt.name);
+		if (binding == null)
+			return null;
+		if (stmt.initializer == null)
+			binding.values = null;
+		else if (binding.values != null)
+			binding.values.add(stmt.initializer);
 		return null;
 	}
 	
 	@Override
 	public Void visitFunction(Stmt.Function stmt) {
-	    declare(stmt.name);
+	    // Defined only once the body is resolved, since the function is
+	    // created before its name is bound
+	    Binding binding = declare(stmt.name, stmt);
+	    if (binding != null)
+	    		binding.values = null;
+	    resolveFunction(stmt.name, stmt.expr, FunctionType.FUNCTION);
 	    define(stmt.name);
-	    resolveFunction(stmt, FunctionType.FUNCTION);
 	    return null;
 	}
 	
@@ -101,24 +194,37 @@ Stmt.Visitor<Void> {
 		}
 	    if (stmt.value != null) {
 	    		resolve(stmt.value);
+	    		stmt.tailCall = isSelfCall(stmt.value);
 	    }
+	    Expr.Function function = currentScope.declaration;
+	    if (function == null || returns.get(function) == null)
+	    		return null;
+	    if (stmt.value == null)
+	    		returns.put(function, null);
+	    else
+	    		returns.get(function).add(stmt.value);
 	    return null;
 	}
 	
 	@Override
 	public Void visitModule(Stmt.Module stmt) {
-	    declare(stmt.name);
-	    define(stmt.name);
+	    Binding binding = declare(stmt.name, stmt);
+	    if (binding != null)
+	    		binding.values = null;
 	    for (Stmt.Function method : stmt.methods) {
 	        FunctionType declaration = FunctionType.METHOD;
-	        resolveFunction(method, declaration); 
+	        resolveFunction(method.name, method.expr, declaration); 
 	    }
+	    define(stmt.name);
 	    return null;
 	}
 	
 	@Override
 	public Void visitMap(Stmt.Map stmt) {
-		declare(stmt.name);
+		open = true;
+		Binding binding = declare(stmt.name, stmt);
+		if (binding != null)
+			binding.values = null;
 		define(stmt.name);
 		return null;
 	}
@@ -144,6 +250,7 @@ Stmt.Visitor<Void> {
 	
 	@Override
 	public Void visitImport(Stmt.Import stmt) {
+		open = true;
 		return null;
 	}
 	
@@ -163,6 +270,7 @@ Stmt.Visitor<Void> {
 	
 	@Override
 	public Void visitCall(Expr.Call expr) {
+	    calls.add(expr);
 	    resolve(expr.callee);
 	    for (Expr argument : expr.arguments) {
 	      resolve(argument);
@@ -187,6 +295,13 @@ Stmt.Visitor<Void> {
 	    return null;
 	}
 	
+	@Override
+	public Void visitSet(Expr.Set expr) {
+	    resolve(expr.value);
+	    resolve(expr.object);
+	    return null;
+	}
+	
 	@Override
 	public Void visitLogical(Expr.Logical expr) {
 	    resolve(expr.left);
@@ -202,60 +317,376 @@ Stmt.Visitor<Void> {
 	
 	// Helpers
 	
+	private void resolveAll(List<Stmt> statements) {
+	    for (Stmt statement : statements) {
+	    		resolve(statement);
+	    }
+	}
+	
 	private void resolve(Stmt stmt) {
 		stmt.accept(this);
 	}
 	
 	private void resolve(Expr expr) {
+	    expressions.add(expr);
 	    expr.accept(this);
 	}
 	
 	private void resolveLocal(Expr expr, 
 			TToken name) {
 	    for (int i = scopes.size() - 1; i >= 0; i--) {
-	    		if (scopes.get(i).containsKey(name.lexeme)) {
-	    			interpreter.resolve(expr, scopes.size() - 1 - i);
-	    			return;
+	    		Binding binding = scopes.get(i).bindings.get(name.lexeme);
+	    		if (binding == null)
+	    			continue;
+	    		boolean captured = i < currentScope.base;
+	    		int depth = captured ? 0 : scopes.size() - 1 - i;
+	    		int slot = captured ? 
+	    				capture(currentScope, binding, i) : binding.slot;
+	    		if (expr instanceof Expr.Assign) {
+	    			Expr.Assign assign = (Expr.Assign) expr;
+	    			assign.depth = depth;
+	    			assign.slot = slot;
+	    			assign.captured = captured;
+	    		} else {
+	    			Expr.Variable variable = (Expr.Variable) expr;
+	    			variable.depth = depth;
+	    			variable.slot = slot;
+	    			variable.captured = captured;
 	    		}
+	    		reference(binding, expr);
+	    		return;
 	    }
 	    // Not found, assume is global
+	    reference(global(name), expr);
+	}
+	
+	private void reference(Binding binding, Expr expr) {
+		if (expr instanceof Expr.Assign) {
+			binding.assigned = true;
+			if (binding.values != null)
+				binding.values.add(((Expr.Assign) expr).value);
+		}
+		binding.references.add(expr);
+		resolved.put(expr, binding);
 	}
 	
-	private void resolveFunction(Stmt.Function function,
+	private Binding global(TToken name) {
+		Binding binding = globalBindings.get(name.lexeme);
+		if (binding == null) {
+			binding = new Binding(0);
+			binding.global = true;
+			globalBindings.put(name.lexeme, binding);
+			bindings.add(binding);
+		}
+		return binding;
+	}
+	
+	// Index of the binding, declared in scope i, among the captures of
+	// function, adding it to each function in between as needed
+	private int capture(FunctionScope function, Binding binding, int i) {
+		Integer index = function.captured.get(binding);
+		if (index != null)
+			return index;
+		binding.captured = true;
+		if (!binding.defined)
+			binding.early = true;
+		Expr.Function.Capture capture;
+		if (i >= function.enclosing.base) {
+			// Closures are created in the innermost scope around them
+			capture = new Expr.Function.Capture(true, 
+					function.base - 1 - i, binding.slot);
+		} else {
+			capture = new Expr.Function.Capture(false, 0,
+					capture(function.enclosing, binding, i));
+		}
+		function.captures.add(capture);
+		function.captured.put(binding, function.captures.size() - 1);
+		return function.captures.size() - 1;
+	}
+	
+	private void resolveFunction(TToken name, Expr.Function function,
 			FunctionType type) {
 		FunctionType enclosingFunction = currentFunction;
+		TToken enclosingName = currentName;
 	    currentFunction = type;
+	    currentName = name;
+	    currentScope = new FunctionScope(currentScope, function, scopes.size());
 	    beginScope();
-	    for (TToken param : function.expr.parameters) {
-	    		declare(param);
+	    Binding[] params = new Binding[function.parameters.size()];
+	    for (int i = 0; i < function.parameters.size(); i++) {
+	    		TToken param = function.parameters.get(i);
+	    		Binding binding = declare(param, null);
+	    		if (binding != null) {
+	    			// Given its arguments later, if every call can be found,
+	    			// on top of whatever the body assigns it
+	    			binding.function = function;
+	    			params[i] = binding;
+	    		}
 	    		define(param);
 	    }
-	    resolve(function.expr.body);
+	    parameters.put(function, params);
+	    returns.put(function, new ArrayList<>());
+	    resolveAll(function.body);
+	    if (!returns(function.body))
+	    		returns.put(function, null);
+	    function.slots = scopes.peek().bindings.size();
 	    endScope();
+	    function.captures = currentScope.captures.toArray(
+	    		new Expr.Function.Capture[0]);
+	    currentScope = currentScope.enclosing;
 	    currentFunction = enclosingFunction;
+	    currentName = enclosingName;
+	}
+	
+	// Flow-insensitive inference: each variable's type covers every value
+	// it's ever given, raised from NONE until nothing changes, then every
+	// expression is annotated with what it evaluates to
+	private void infer() {
+		for (Binding binding : globalBindings.values()) {
+			// Builtins and names only code elsewhere declares can hold
+			// anything
+			if (!globals || open || binding.declarations == 0)
+				binding.values = null;
+		}
+		Set<Expr> callees = Collections.newSetFromMap(
+				new IdentityHashMap<>());
+		Map<Binding, List<Expr.Call>> callsTo = new HashMap<>();
+		for (Expr.Call call : calls) {
+			callees.add(call.callee);
+			Binding callee = resolved.get(call.callee);
+			if (callee != null)
+				callsTo.computeIfAbsent(callee,
+						k -> new ArrayList<>()).add(call);
+		}
+		List<Binding> results = new ArrayList<>();
+		Set<Expr.Function> called = Collections.newSetFromMap(
+				new IdentityHashMap<>());
+		for (Binding binding : bindings) {
+			if (binding.early)
+				binding.values = null;
+			if (!(binding.declaration instanceof Stmt.Function) ||
+					binding.declarations != 1 || binding.assigned ||
+					binding.global && (!globals || open))
+				continue;
+			Expr.Function function = 
+					((Stmt.Function) binding.declaration).expr;
+			binding.result = new Binding(0);
+			binding.result.values = returns.get(function);
+			results.add(binding.result);
+			if (callees.containsAll(binding.references)) {
+				arguments(function, callsTo.getOrDefault(binding,
+						Collections.emptyList()));
+				called.add(function);
+			}
+		}
+		// The parameters of any other function can be given anything
+		for (Map.Entry<Expr.Function, Binding[]> entry : 
+				parameters.entrySet()) {
+			if (called.contains(entry.getKey()))
+				continue;
+			for (Binding param : entry.getValue()) {
+				if (param != null)
+					param.values = null;
+			}
+		}
+		bindings.addAll(results);
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (Binding binding : bindings) {
+				Type type = Type.ANY;
+				if (binding.values != null) {
+					type = Type.NONE;
+					for (Expr value : binding.values) {
+						type = join(type, type(value));
+					}
+				}
+				if (type != binding.type) {
+					binding.type = type;
+					changed = true;
+				}
+			}
+		}
+		for (Expr expr : expressions) {
+			expr.type = type(expr);
+		}
 	}
 	
-	private void declare(TToken name) {
-	    if (scopes.isEmpty()) return;
-	    Map<String, Boolean> scope = scopes.peek();
-	    if (scope.containsKey(name.lexeme)) {
+	// A function that's only ever called by name takes only the arguments
+	// of those calls, the ones of the wrong count fail before binding them
+	private void arguments(Expr.Function function, List<Expr.Call> calls) {
+		Binding[] params = parameters.get(function);
+		for (Expr.Call call : calls) {
+			if (call.arguments.size() != params.length)
+				continue;
+			for (int i = 0; i < params.length; i++) {
+				if (params[i] != null && params[i].values != null)
+					params[i].values.add(call.arguments.get(i));
+			}
+		}
+	}
+	
+	private Type type(Expr expr) {
+		if (expr instanceof Expr.Literal)
+			return expr.type;
+		if (expr instanceof Expr.Variable) {
+			Binding binding = resolved.get(expr);
+			return binding == null ? Type.ANY : binding.type;
+		}
+		if (expr instanceof Expr.Assign)
+			return type(((Expr.Assign) expr).value);
+		if (expr instanceof Expr.Call) {
+			Binding callee = resolved.get(((Expr.Call) expr).callee);
+			return callee == null || callee.result == null ? 
+					Type.ANY : callee.result.type;
+		}
+		if (expr instanceof Expr.Grouping)
+			return type(((Expr.Grouping) expr).expression);
+		if (expr instanceof Expr.Logical) {
+			// Either operand can be the result
+			Expr.Logical logical = (Expr.Logical) expr;
+			return join(type(logical.left), type(logical.right));
+		}
+		if (expr instanceof Expr.Unary) {
+			Expr.Unary unary = (Expr.Unary) expr;
+			return unary.operator.type == TType.BANG ? 
+					Type.BOOLEAN : Type.NUMBER;
+		}
+		if (!(expr instanceof Expr.Binary))
+			return Type.ANY;
+		Expr.Binary binary = (Expr.Binary) expr;
+		switch (binary.operator.type) {
+		case PLUS:
+		{
+			Type type = join(type(binary.left), type(binary.right));
+			return type == Type.BOOLEAN ? Type.ANY : type;
+		}
+		case MINUS:
+		case STAR:
+		case SLASH:
+			return Type.NUMBER;
+		case BANG_EQUAL:
+		case EQUAL_EQUAL:
+		case GREATER:
+		case GREATER_EQUAL:
+		case LESS:
+		case LESS_EQUAL:
+			return Type.BOOLEAN;
+		default:
+			return Type.ANY;
+		}
+	}
+	
+	private Type join(Type a, Type b) {
+		if (a == Type.NONE || a == b)
+			return b;
+		if (b == Type.NONE)
+			return a;
+		return Type.ANY;
+	}
+	
+	// Only a candidate, the interpreter still checks that the callee is
+	// the running function since the name can be rebound
+	private boolean isSelfCall(Expr value) {
+		if (currentFunction != FunctionType.FUNCTION || currentName == null ||
+				!(value instanceof Expr.Call))
+			return false;
+		Expr callee = ((Expr.Call) value).callee;
+		return callee instanceof Expr.Variable &&
+				((Expr.Variable) callee).name.lexeme.equals(currentName.lexeme);
+	}
+	
+	// Whether running the statements always ends in a return, a function
+	// that can run off its end returns none
+	private boolean returns(List<Stmt> statements) {
+		return !statements.isEmpty() && 
+				returns(statements.get(statements.size() - 1));
+	}
+	
+	private boolean returns(Stmt stmt) {
+		if (stmt instanceof Stmt.Return)
+			return true;
+		if (stmt instanceof Stmt.Block)
+			return returns(((Stmt.Block) stmt).statements);
+		if (!(stmt instanceof Stmt.If))
+			return false;
+		Stmt.If branches = (Stmt.If) stmt;
+		return branches.elseBranch != null &&
+				returns(branches.thenBranch) && returns(branches.elseBranch);
+	}
+	
+	private boolean declares(List<Stmt> statements) {
+		for (Stmt statement : statements) {
+			if (statement instanceof Stmt.Var ||
+					statement instanceof Stmt.Function ||
+					statement instanceof Stmt.Module ||
+					statement instanceof Stmt.Map)
+				return true;
+		}
+		return false;
+	}
+	
+	private Binding declare(TToken name, Stmt declaration) {
+	    if (scopes.isEmpty()) {
+	    		Binding binding = global(name);
+	    		binding.declaration = declaration;
+	    		binding.declarations++;
+	    		return binding;
+	    }
+	    Scope scope = scopes.peek();
+	    if (scope.bindings.containsKey(name.lexeme)) {
 	        	Error.error(name,
 	            "Variable with this name already declared in this current"
 	            + " scope.");
+	        	return null;
 	      }
-	    scope.put(name.lexeme, false);
+	    Binding binding = new Binding(scope.bindings.size());
+	    binding.declaration = declaration;
+	    binding.declarations++;
+	    scope.bindings.put(name.lexeme, binding);
+	    bindings.add(binding);
+	    return binding;
 	}
 	
 	private void define(TToken name) {
 	    if (scopes.isEmpty()) return;
-	    scopes.peek().put(name.lexeme, true);
+	    Binding binding = scopes.peek().bindings.get(name.lexeme);
+	    if (binding != null)
+	    		binding.defined = true;
 	}
 	
 	private void beginScope() {
-		scopes.push(new HashMap<String, Boolean>());
+		scopes.push(new Scope());
 	}
 	
+	// Variables that closures copy but that can still change, or that are
+	// copied before they exist, go in a Cell shared by all the copies
 	private void endScope() {
-		scopes.pop();
+		for (Binding binding : scopes.pop().bindings.values()) {
+			if (!binding.assigned && binding.declaration instanceof Stmt.Var)
+				((Stmt.Var) binding.declaration).constant = true;
+			if (!binding.captured || !(binding.assigned || binding.early))
+				continue;
+			for (Expr reference : binding.references) {
+				if (reference instanceof Expr.Assign)
+					((Expr.Assign) reference).boxed = true;
+				else
+					((Expr.Variable) reference).boxed = true;
+			}
+			if (binding.declaration instanceof Stmt.Var) {
+				((Stmt.Var) binding.declaration).cell = true;
+			} else if (binding.declaration instanceof Stmt.Function) {
+				((Stmt.Function) binding.declaration).cell = true;
+			} else if (binding.declaration instanceof Stmt.Module) {
+				((Stmt.Module) binding.declaration).cell = true;
+			} else if (binding.declaration instanceof Stmt.Map) {
+				((Stmt.Map) binding.declaration).cell = true;
+			} else if (binding.function != null) {
+				if (binding.function.cells == null)
+					binding.function.cells = 
+						new boolean[binding.function.parameters.size()];
+				binding.function.cells[binding.slot] = true;
+			}
+		}
 	}
 }
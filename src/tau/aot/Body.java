@@ -0,0 +1,9 @@
+package tau.aot;
+
+import tau.runtime.*;
+
+// The translated code of one function, run in the frame its
+// arguments were defined into
+public interface Body {
+	Object run(Environment frame);
+}
@@ -0,0 +1,103 @@
+package tau.aot;
+
+import java.util.*;
+import tau.interpreter.*;
+import tau.runtime.*;
+
+public class CompiledFunction implements ICallable {
+	private final String name;
+	private final int arity;
+	private final int slots;
+	private final Object[] captures;
+	private final Body body;
+	
+	public CompiledFunction(String name, int arity, int slots,
+			Object[] captures, Body body) {
+		this.name = name;
+		this.arity = arity;
+		this.slots = slots;
+		this.captures = captures;
+		this.body = body;
+	}
+	
+	@Override
+	public int arity() {
+		return arity;
+	}
+	
+	@Override
+	public Object call(Interpreter interpreter, List<Object> arguments) {
+		Environment frame = new Environment(captures, slots);
+		for (Object argument : arguments) {
+			frame.define(argument);
+		}
+		return invoke(frame);
+	}
+	
+	@Override
+	public Object call0(Interpreter interpreter) {
+		return invoke(new Environment(captures, slots));
+	}
+	
+	@Override
+	public Object call1(Interpreter interpreter, Object a) {
+		Environment frame = new Environment(captures, slots);
+		frame.define(a);
+		return invoke(frame);
+	}
+	
+	@Override
+	public Object call2(Interpreter interpreter, Object a,
+			Object b) {
+		Environment frame = new Environment(captures, slots);
+		frame.define(a);
+		frame.define(b);
+		return invoke(frame);
+	}
+	
+	@Override
+	public Object call3(Interpreter interpreter, Object a,
+			Object b, Object c) {
+		Environment frame = new Environment(captures, slots);
+		frame.define(a);
+		frame.define(b);
+		frame.define(c);
+		return invoke(frame);
+	}
+	
+	@Override
+	public Object call4(Interpreter interpreter, Object a,
+			Object b, Object c, Object d) {
+		Environment frame = new Environment(captures, slots);
+		frame.define(a);
+		frame.define(b);
+		frame.define(c);
+		frame.define(d);
+		return invoke(frame);
+	}
+	
+	private Object invoke(Environment frame) {
+		CompiledFunction caller = Support.running;
+		Support.running = this;
+		try {
+			Object result;
+			// A self call in tail position runs the body again in a fresh
+			// frame, rather than nesting another call
+			while ((result = body.run(frame)) == Function.TAIL_CALL) {
+				frame = new Environment(captures, slots);
+				for (Object argument : Support.tailArguments) {
+					frame.define(argument);
+				}
+				Support.tailArguments = null;
+			}
+			return result;
+		} finally {
+			Support.running = caller;
+		}
+	}
+	
+	@Override
+	public String toString() {
+		return name == null ? "<fn>" : "<fn " + name + ">";
+	}
+}
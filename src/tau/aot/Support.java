@@ -0,0 +1,239 @@
+package tau.aot;
+
+import java.util.*;
+import java.util.function.Supplier;
+import tau.Tau;
+import tau.ast.*;
+import tau.core.*;
+import tau.error.Error;
+import tau.interpreter.*;
+import tau.literal.*;
+import tau.runtime.*;
+import tau.runtime.Module;
+
+// What translated scripts call into. Sites are the AST nodes the translator
+// rebuilt without their operands, so the interpreter's own helpers report
+// errors for them exactly as they would for the original script.
+public class Support {
+	public static final Interpreter interpreter = 
+			new Interpreter();
+	public static final Environment globals = 
+			interpreter.globals;
+	// The compiled function whose body is running, and the arguments a self
+	// call in tail position hands back to it
+	static CompiledFunction running = null;
+	static Object[] tailArguments = null;
+	
+	public static void main(String path, String[] args, Body script) {
+		// Scripts see the same argv as under the interpreter, path first
+		Tau.arguments = new String[args.length + 1];
+		Tau.arguments[0] = path;
+		System.arraycopy(args, 0, Tau.arguments, 1, args.length);
+		try {
+			script.run(globals);
+		} catch (Interpreter.RuntimeError error) {
+			Error.runtimeError(error);
+		}
+		if (Tau.hadError)
+			System.exit(65);
+		if (Tau.hadRuntimeError)
+			System.exit(70);
+	}
+	
+	public static Object global(Expr.Variable site) {
+		return globals.get(site);
+	}
+	
+	public static Object assignGlobal(Expr.Assign site, Object value) {
+		globals.assign(site, value);
+		return value;
+	}
+	
+	public static Object assign(Environment environment, int distance,
+			int slot, Object value) {
+		environment.assignAt(distance, slot, value);
+		return value;
+	}
+	
+	public static Object setCell(Object cell, Object value) {
+		((Cell) cell).value = value;
+		return value;
+	}
+	
+	public static void discard(Object value) {
+	}
+	
+	public static void print(Object value) {
+		System.out.println(Interpreter.stringify(value));
+	}
+	
+	public static boolean truthy(Object value) {
+		if (value == null) return false;
+		if (value instanceof Boolean) return (boolean)value;
+		return true;
+	}
+	
+	public static Object or(Object left, Supplier<Object> right) {
+		return truthy(left) ? left : right.get();
+	}
+	
+	public static Object and(Object left, Supplier<Object> right) {
+		return truthy(left) ? right.get() : left;
+	}
+	
+	public static Object module(String name, String[] names,
+			ICallable[] methods) {
+		Map<String, ICallable> table = new HashMap<>();
+		for (int i = 0; i < names.length; i++) {
+			table.put(names[i], methods[i]);
+		}
+		return new Module(name, table);
+	}
+	
+	public static Object map(TToken name, String[] names, 
+			ICallable[] values) {
+		Map<String, Object> table = new HashMap<>();
+		for (int i = 0; i < names.length; i++) {
+			table.put(names[i], values[i]);
+		}
+		return new MapInstance(name, table);
+	}
+	
+	public static void load(String path) {
+		interpreter.processImport(path);
+	}
+	
+	public static Object array(Object[] elements) {
+		return new Array(new ArrayList<>(Arrays.asList(elements)));
+	}
+	
+	public static Object get(Expr.Get site, Object object) {
+		if (object instanceof MapInstance) {
+			// Map values are compiled to thunks over the globals
+			Object value = site.cache.lookup(object);
+			if (value == InlineCache.MISS) {
+				value = ((MapInstance) object).get(site.name);
+				site.cache.update(object, value);
+			}
+			return ((ICallable) value).call0(interpreter);
+		}
+		return interpreter.getProperty(site, object);
+	}
+	
+	public static Object set(Expr.Set site, Object object, Object value) {
+		return interpreter.setProperty(site, object, value);
+	}
+	
+	public static Object call(Expr.Call site, Object callee,
+			Object[] arguments) {
+		return interpreter.callable(site, callee, arguments.length)
+				.call(interpreter, new ArrayList<>(Arrays.asList(arguments)));
+	}
+	
+	public static Object tailCall(Expr.Call site, Object callee,
+			Object[] arguments) {
+		if (callee != running)
+			return call(site, callee, arguments);
+		interpreter.callable(site, callee, arguments.length);
+		tailArguments = arguments;
+		return Function.TAIL_CALL;
+	}
+	
+	public static Object call0(Expr.Call site, Object callee) {
+		return interpreter.callable(site, callee, 0).call0(interpreter);
+	}
+	
+	public static Object call1(Expr.Call site, Object callee, Object a) {
+		return interpreter.callable(site, callee, 1).call1(interpreter, a);
+	}
+	
+	public static Object call2(Expr.Call site, Object callee, Object a,
+			Object b) {
+		return interpreter.callable(site, callee, 2).call2(interpreter, a, b);
+	}
+	
+	public static Object call3(Expr.Call site, Object callee, Object a,
+			Object b, Object c) {
+		return interpreter.callable(site, callee, 3).call3(interpreter, a, b, c);
+	}
+	
+	public static Object call4(Expr.Call site, Object callee, Object a,
+			Object b, Object c, Object d) {
+		return interpreter.callable(site, callee, 4).call4(interpreter, a, b, c, d);
+	}
+	
+	public static Object unary(Expr.Unary site, Object right) {
+		return interpreter.unary(site, right);
+	}
+	
+	public static Object binary(Expr.Binary site, Object left, Object right) {
+		return interpreter.binary(site, left, right);
+	}
+	
+	// Numeric operators inline the common case and leave everything
+	// else, errors included, to the interpreter
+	
+	public static Object add(Expr.Binary site, Object left, Object right) {
+		if (left instanceof Long && right instanceof Long)
+			return Numbers.add((long)left, (long)right);
+		if (left instanceof Double && right instanceof Double)
+			return (double)left + (double)right;
+		return interpreter.binary(site, left, right);
+	}
+	
+	public static Object subtract(Expr.Binary site, Object left, Object right) {
+		if (left instanceof Long && right instanceof Long)
+			return Numbers.subtract((long)left, (long)right);
+		if (left instanceof Double && right instanceof Double)
+			return (double)left - (double)right;
+		return interpreter.binary(site, left, right);
+	}
+	
+	public static Object multiply(Expr.Binary site, Object left, Object right) {
+		if (left instanceof Long && right instanceof Long)
+			return Numbers.multiply((long)left, (long)right);
+		if (left instanceof Double && right instanceof Double)
+			return (double)left * (double)right;
+		return interpreter.binary(site, left, right);
+	}
+	
+	public static Object divide(Expr.Binary site, Object left, Object right) {
+		if (left instanceof Long && right instanceof Long)
+			return Numbers.divide(left, right);
+		if (left instanceof Double && right instanceof Double)
+			return (double)left / (double)right;
+		return interpreter.binary(site, left, right);
+	}
+	
+	public static Object greater(Expr.Binary site, Object left, Object right) {
+		if (left instanceof Long && right instanceof Long)
+			return (long)left > (long)right;
+		if (left instanceof Double && right instanceof Double)
+			return (double)left > (double)right;
+		return interpreter.binary(site, left, right);
+	}
+	
+	public static Object greaterEqual(Expr.Binary site, Object left, Object right) {
+		if (left instanceof Long && right instanceof Long)
+			return (long)left >= (long)right;
+		if (left instanceof Double && right instanceof Double)
+			return (double)left >= (double)right;
+		return interpreter.binary(site, left, right);
+	}
+	
+	public static Object less(Expr.Binary site, Object left, Object right) {
+		if (left instanceof Long && right instanceof Long)
+			return (long)left < (long)right;
+		if (left instanceof Double && right instanceof Double)
+			return (double)left < (double)right;
+		return interpreter.binary(site, left, right);
+	}
+	
+	public static Object lessEqual(Expr.Binary site, Object left, Object right) {
+		if (left instanceof Long && right instanceof Long)
+			return (long)left <= (long)right;
+		if (left instanceof Double && right instanceof Double)
+			return (double)left <= (double)right;
+		return interpreter.binary(site, left, right);
+	}
+}
@@ -0,0 +1,437 @@
+package tau.aot;
+
+import java.util.*;
+import tau.ast.*;
+import tau.literal.*;
+import static tau.literal.TType.*;
+
+// Translates an analyzed script into the source of one Java class. Every Tau
+// function becomes a static method over an Environment frame laid out the
+// way the Analyzer assigned slots, so translated code keeps the interpreter's
+// scoping and can call into interpreted imports and core objects.
+public class Translator implements Expr.Visitor<String>, Stmt.Visitor<Void> {
+	private final String className;
+	private final String path;
+	private final StringBuilder fields = 
+			new StringBuilder();
+	private final StringBuilder methods = 
+			new StringBuilder();
+	private StringBuilder code;
+	private int indent;
+	// Index of the innermost frame variable, env0 is the function's own frame
+	private int depth;
+	private int constants = 0;
+	private int functions = 0;
+	private int cells = 0;
+	
+	public Translator(String className, String path) {
+		this.className = className;
+		this.path = path;
+	}
+	
+	public String translate(List<Stmt> statements) {
+		String script = method("script", statements, null);
+		return "import tau.aot.*;\n" +
+				"import tau.ast.*;\n" +
+				"import tau.literal.*;\n" +
+				"import tau.runtime.*;\n" +
+				"\n" +
+				"public final class " + className + " {\n" +
+				fields +
+				"\n" +
+				"\tpublic static void main(String[] args) {\n" +
+				"\t\tSupport.main(" + string(path) + ", args, " + className + "::" + script + ");\n" +
+				"\t}\n" +
+				methods +
+				"}\n";
+	}
+	
+	@Override
+	public Void visitExpression(Stmt.Expression stmt) {
+		Expr expr = stmt.expression;
+		if (expr instanceof Expr.Call || expr instanceof Expr.Assign ||
+				expr instanceof Expr.Set) {
+			line(translate(expr) + ";");
+		} else {
+			line("Support.discard(" + translate(expr) + ");");
+		}
+		return null;
+	}
+	
+	@Override
+	public Void visitDebug(Stmt.Debug stmt) {
+		line("Support.print(" + translate(stmt.expression) + ");");
+		return null;
+	}
+	
+	@Override
+	public Void visitVar(Stmt.Var stmt) {
+		String value = stmt.initializer == null ?
+				"null" : translate(stmt.initializer);
+		define(stmt.name, stmt.cell, value);
+		return null;
+	}
+	
+	@Override
+	public Void visitBlock(Stmt.Block stmt) {
+		if (!stmt.scoped) {
+			line("{");
+			branch(stmt.statements);
+			line("}");
+			return null;
+		}
+		line("{");
+		indent++;
+		line("final Environment env" + (depth + 1) + " = new Environment(env" +
+				depth + ", " + stmt.slots + ");");
+		depth++;
+		for (Stmt statement : stmt.statements) {
+			translate(statement);
+		}
+		depth--;
+		indent--;
+		line("}");
+		return null;
+	}
+	
+	@Override
+	public Void visitIf(Stmt.If stmt) {
+		line("if (Support.truthy(" + translate(stmt.condition) + ")) {");
+		branch(stmt.thenBranch);
+		if (stmt.elseBranch != null) {
+			line("} else {");
+			branch(stmt.elseBranch);
+		}
+		line("}");
+		return null;
+	}
+	
+	@Override
+	public Void visitWhile(Stmt.While stmt) {
+		line("while (Support.truthy(" + translate(stmt.condition) + ")) {");
+		branch(stmt.body);
+		line("}");
+		return null;
+	}
+	
+	@Override
+	public Void visitReturn(Stmt.Return stmt) {
+		String value = stmt.value == null ? 
+				"null" : stmt.tailCall ? 
+				tailCall((Expr.Call) stmt.value) : translate(stmt.value);
+		// javac rejects statements after a plain return, Tau doesn't
+		line("if (true) return " + value + ";");
+		return null;
+	}
+	
+	@Override
+	public Void visitFunction(Stmt.Function stmt) {
+		define(stmt.name, stmt.cell, function(stmt.name.lexeme, stmt.expr));
+		return null;
+	}
+	
+	@Override
+	public Void visitModule(Stmt.Module stmt) {
+		List<String> names = new ArrayList<>();
+		List<String> methods = new ArrayList<>();
+		for (Stmt.Function method : stmt.methods) {
+			names.add(string(method.name.lexeme));
+			methods.add(function(method.name.lexeme, method.expr));
+		}
+		define(stmt.name, stmt.cell, "Support.module(" + string(stmt.name.lexeme) +
+				", new String[] {" + String.join(", ", names) + 
+				"}, new ICallable[] {" + String.join(", ", methods) + "})");
+		return null;
+	}
+	
+	@Override
+	public Void visitMap(Stmt.Map stmt) {
+		// Values are evaluated on every access, against the globals only
+		List<String> names = new ArrayList<>();
+		List<String> values = new ArrayList<>();
+		for (Stmt.MapValue value : stmt.values) {
+			List<Stmt> body = new ArrayList<>();
+			body.add(new Stmt.Return(value.name, value.value));
+			names.add(string(value.name.lexeme));
+			values.add("new CompiledFunction(null, 0, 0, null, " +
+					className + "::" + method("value", body, null) + ")");
+		}
+		define(stmt.name, stmt.cell, "Support.map(" + token(stmt.name) +
+				", new String[] {" + String.join(", ", names) + 
+				"}, new ICallable[] {" + String.join(", ", values) + "})");
+		return null;
+	}
+	
+	@Override
+	public Void visitMapValue(Stmt.MapValue stmt) {
+		return null;
+	}
+	
+	@Override
+	public Void visitImport(Stmt.Import stmt) {
+		line("Support.load(" + string((String)stmt.expr.value) + ");");
+		return null;
+	}
+	
+	@Override
+	public String visitFunction(Expr.Function expr) {
+		return function(null, expr);
+	}
+	
+	@Override
+	public String visitLiteral(Expr.Literal expr) {
+		if (expr.value == null)
+			return "null";
+		if (expr.value instanceof Boolean)
+			return (boolean)expr.value ? "Boolean.TRUE" : "Boolean.FALSE";
+		if (expr.value instanceof String)
+			return string((String)expr.value);
+		if (expr.value instanceof Long)
+			return constant("Object", "Long.valueOf(" + expr.value + "L)");
+		double value = (double)expr.value;
+		// Folded constants can be infinite or NaN, which have no literal
+		String text = Double.isFinite(value) ? Double.toString(value) :
+				"Double.longBitsToDouble(" + Double.doubleToRawLongBits(value) + "L)";
+		return constant("Object", "Double.valueOf(" + text + ")");
+	}
+	
+	@Override
+	public String visitGrouping(Expr.Grouping expr) {
+		return "(" + translate(expr.expression) + ")";
+	}
+	
+	@Override
+	public String visitVariable(Expr.Variable expr) {
+		if (expr.depth == Expr.GLOBAL)
+			return "Support.global(" + constant("Expr.Variable", 
+					"new Expr.Variable(" + token(expr.name) + ")") + ")";
+		String slot = slot(expr.captured, expr.depth, expr.slot);
+		if (expr.boxed)
+			return "((Cell) " + slot + ").value";
+		return slot;
+	}
+	
+	@Override
+	public String visitAssign(Expr.Assign expr) {
+		String value = translate(expr.value);
+		if (expr.depth == Expr.GLOBAL)
+			return "Support.assignGlobal(" + constant("Expr.Assign", 
+					"new Expr.Assign(" + token(expr.name) + ", null)") + ", " + value + ")";
+		if (expr.boxed)
+			return "Support.setCell(" + slot(expr.captured, expr.depth, expr.slot) +
+					", " + value + ")";
+		return "Support.assign(env" + (depth - expr.depth) + ", 0, " +
+				expr.slot + ", " + value + ")";
+	}
+	
+	@Override
+	public String visitLogical(Expr.Logical expr) {
+		String operator = expr.operator.type == OR ? "or" : "and";
+		return "Support." + operator + "(" + translate(expr.left) + 
+				", () -> " + translate(expr.right) + ")";
+	}
+	
+	@Override
+	public String visitBinary(Expr.Binary expr) {
+		String operator;
+		switch(expr.operator.type) {
+		case PLUS: operator = "add"; break;
+		case MINUS: operator = "subtract"; break;
+		case STAR: operator = "multiply"; break;
+		case SLASH: operator = "divide"; break;
+		case GREATER: operator = "greater"; break;
+		case GREATER_EQUAL: operator = "greaterEqual"; break;
+		case LESS: operator = "less"; break;
+		case LESS_EQUAL: operator = "lessEqual"; break;
+		default: operator = "binary"; break;
+		}
+		String site = constant("Expr.Binary", "new Expr.Binary(null, " +
+				token(expr.operator) + ", null)");
+		return "Support." + operator + "(" + site + ", " + 
+				translate(expr.left) + ", " + translate(expr.right) + ")";
+	}
+	
+	@Override
+	public String visitUnary(Expr.Unary expr) {
+		String site = constant("Expr.Unary", "new Expr.Unary(" + 
+				token(expr.operator) + ", null)");
+		return "Support.unary(" + site + ", " + translate(expr.right) + ")";
+	}
+	
+	@Override
+	public String visitCall(Expr.Call expr) {
+		String site = constant("Expr.Call", "new Expr.Call(null, " + 
+				token(expr.paren) + ", null)");
+		List<String> arguments = new ArrayList<>();
+		for (Expr argument : expr.arguments) {
+			arguments.add(translate(argument));
+		}
+		String callee = translate(expr.callee);
+		if (arguments.size() <= 4) {
+			arguments.add(0, callee);
+			arguments.add(0, site);
+			return "Support.call" + (arguments.size() - 2) + "(" + 
+					String.join(", ", arguments) + ")";
+		}
+		return "Support.call(" + site + ", " + callee + ", new Object[] {" +
+				String.join(", ", arguments) + "})";
+	}
+	
+	// The callee is checked at run time, the name may have been rebound
+	private String tailCall(Expr.Call expr) {
+		String site = constant("Expr.Call", "new Expr.Call(null, " + 
+				token(expr.paren) + ", null)");
+		String callee = translate(expr.callee);
+		List<String> arguments = new ArrayList<>();
+		for (Expr argument : expr.arguments) {
+			arguments.add(translate(argument));
+		}
+		return "Support.tailCall(" + site + ", " + callee + ", new Object[] {" +
+				String.join(", ", arguments) + "})";
+	}
+	
+	@Override
+	public String visitGet(Expr.Get expr) {
+		String site = constant("Expr.Get", "new Expr.Get(null, " + 
+				token(expr.name) + ")");
+		return "Support.get(" + site + ", " + translate(expr.object) + ")";
+	}
+	
+	@Override
+	public String visitSet(Expr.Set expr) {
+		String site = constant("Expr.Set", "new Expr.Set(null, " + 
+				token(expr.name) + ", null)");
+		return "Support.set(" + site + ", " + translate(expr.object) + ", " +
+				translate(expr.value) + ")";
+	}
+	
+	@Override
+	public String visitArray(Expr.Array expr) {
+		List<String> elements = new ArrayList<>();
+		for (Expr element : expr.elements) {
+			elements.add(translate(element));
+		}
+		return "Support.array(new Object[] {" + String.join(", ", elements) + "})";
+	}
+	
+	// Helpers
+	
+	private String translate(Expr expr) {
+		return expr.accept(this);
+	}
+	
+	private void translate(Stmt stmt) {
+		stmt.accept(this);
+	}
+	
+	private void branch(List<Stmt> statements) {
+		indent++;
+		for (Stmt statement : statements) {
+			translate(statement);
+		}
+		indent--;
+	}
+	
+	private void branch(Stmt stmt) {
+		indent++;
+		translate(stmt);
+		indent--;
+	}
+	
+	private String slot(boolean captured, int distance, int slot) {
+		if (captured)
+			return "env" + depth + ".captures[" + slot + "]";
+		return "env" + (depth - distance) + ".getAt(0, " + slot + ")";
+	}
+	
+	private void define(TToken name, boolean cell, String value) {
+		if (!cell) {
+			line("env" + depth + ".define(" + string(name.lexeme) + ", " + value + ");");
+			return;
+		}
+		// Bound before the value exists, closures in it share the cell
+		String variable = "cell" + cells++;
+		line("final Cell " + variable + " = new Cell();");
+		line("env" + depth + ".define(" + variable + ");");
+		line(variable + ".value = " + value + ";");
+	}
+	
+	private String function(String name, Expr.Function expr) {
+		String method = method("function", expr.body, expr.cells);
+		List<String> captures = new ArrayList<>();
+		for (Expr.Function.Capture capture : expr.captures) {
+			captures.add(capture.local ?
+					"env" + (depth - capture.depth) + ".getAt(0, " + capture.index + ")" :
+					"env" + depth + ".captures[" + capture.index + "]");
+		}
+		String captured = captures.isEmpty() ? "null" :
+				"new Object[] {" + String.join(", ", captures) + "}";
+		return "new CompiledFunction(" + (name == null ? "null" : string(name)) +
+				", " + expr.parameters.size() + ", " + expr.slots + ", " + 
+				captured + ", " + className + "::" + method + ")";
+	}
+	
+	// Translates a body into its own method and returns the method's name
+	private String method(String kind, List<Stmt> body, boolean[] cells) {
+		String name = kind + functions++;
+		StringBuilder enclosingCode = code;
+		int enclosingIndent = indent;
+		int enclosingDepth = depth;
+		code = new StringBuilder();
+		indent = 2;
+		depth = 0;
+		for (int i = 0; cells != null && i < cells.length; i++) {
+			if (cells[i])
+				line("env0.assignAt(0, " + i + ", new Cell(env0.getAt(0, " + i + ")));");
+		}
+		for (Stmt statement : body) {
+			translate(statement);
+		}
+		line("return null;");
+		methods.append("\n\tprivate static Object " + name + "(final Environment env0) {\n")
+				.append(code)
+				.append("\t}\n");
+		code = enclosingCode;
+		indent = enclosingIndent;
+		depth = enclosingDepth;
+		return name;
+	}
+	
+	private void line(String text) {
+		for (int i = 0; i < indent; i++) {
+			code.append('\t');
+		}
+		code.append(text).append('\n');
+	}
+	
+	private String constant(String type, String value) {
+		String name = "K" + constants++;
+		fields.append("\tprivate static final " + type + " " + name + 
+				" = " + value + ";\n");
+		return name;
+	}
+	
+	private String token(TToken token) {
+		return constant("TToken", "new TToken(TType." + token.type.name() + 
+				", " + string(token.lexeme) + ", null, " + token.line + ")");
+	}
+	
+	private static String string(String text) {
+		StringBuilder builder = new StringBuilder("\"");
+		for (char c : text.toCharArray()) {
+			switch(c) {
+			case '"': builder.append("\\\""); break;
+			case '\\': builder.append("\\\\"); break;
+			case '\n': builder.append("\\n"); break;
+			case '\r': builder.append("\\r"); break;
+			case '\t': builder.append("\\t"); break;
+			default:
+				if (c < 0x20 || c > 0x7e)
+					builder.append(String.format("\\u%04x", (int)c));
+				else
+					builder.append(c);
+			}
+		}
+		return builder.append('"').toString();
+	}
+}
@@ -2,6 +2,7 @@ package tau.ast;
 
 import tau.ast.Stmt.Visitor;
 import tau.literal.*;
+import tau.runtime.InlineCache;
 import java.util.*;
 
 public abstract class Expr {
@@ -15,10 +16,28 @@ public abstract class Expr {
 		R visitLogical(Logical expr);
 		R visitCall(Call expr);
 		R visitGet(Get expr);
+		R visitSet(Set expr);
 		R visitArray(Array expr);
 		R visitFunction(Function expr);
 	}
 	
+	// Resolved depth of a name the Analyzer didn't find in any scope
+	public static final int GLOBAL = -1;
+	
+	// Operand types an operator node has specialized itself to after
+	// running, see Interpreter.specialize
+	public enum Specialization {
+		UNINITIALIZED, INTEGER, NUMBER, STRING, GENERIC
+	}
+	
+	// What the Analyzer proved an expression's value always is, whenever it
+	// has one. NONE is for expressions that never produce a value.
+	public enum Type {
+		NONE, NUMBER, STRING, BOOLEAN, ANY
+	}
+	
+	public Type type = Type.ANY;
+	
 	public static class Binary extends Expr {
 		public Binary(Expr left, TToken operator,
 				Expr right) {
@@ -35,6 +54,8 @@ public abstract class Expr {
 		public final Expr left;
 		public final TToken operator;
 		public final Expr right;
+		public Specialization specialization = 
+				Specialization.UNINITIALIZED;
 	}
 	
 	public static class Function extends Expr {
@@ -51,6 +72,47 @@ public abstract class Expr {
 
 	    public final List<TToken> parameters;
 	    public final List<Stmt> body;
+	    // Parameters plus body variables, filled in by the Analyzer
+	    public int slots = 0;
+	    // Where each variable the body uses from enclosing functions is
+	    // copied from when the closure is created
+	    public Capture[] captures = NO_CAPTURES;
+	    // Parameters that live in a Cell, null when none do
+	    public boolean[] cells = null;
+	    // Where the body still waits to be parsed, null once it has been
+	    public Deferred deferred = null;
+	    
+	    private static final Capture[] NO_CAPTURES = new Capture[0];
+	    
+	    public static class Capture {
+	    		public Capture(boolean local, int depth, int index) {
+	    			this.local = local;
+	    			this.depth = depth;
+	    			this.index = index;
+	    		}
+	    		
+	    		// A slot of the enclosing function's frames, or else one of
+	    		// the enclosing function's own captures
+	    		public final boolean local;
+	    		public final int depth;
+	    		public final int index;
+	    }
+	    
+	    public static class Deferred {
+	    		public Deferred(TToken name, TTokens tokens, int start,
+	    				int end) {
+	    			this.name = name;
+	    			this.tokens = tokens;
+	    			this.start = start;
+	    			this.end = end;
+	    		}
+	    		
+	    		public final TToken name;
+	    		public final TTokens tokens;
+	    		// The token after the body's do, and the body's end
+	    		public final int start;
+	    		public final int end;
+	    }
 	}
 	
 	public static class Grouping extends Expr {
@@ -69,6 +131,12 @@ public abstract class Expr {
 	public static class Literal extends Expr {
 		public Literal(Object value) {
 			this.value = value;
+			if (value instanceof Long || value instanceof Double)
+				type = Type.NUMBER;
+			else if (value instanceof String)
+				type = Type.STRING;
+			else if (value instanceof Boolean)
+				type = Type.BOOLEAN;
 		}
 		
 		@Override
@@ -93,6 +161,8 @@ public abstract class Expr {
 		
 		public final TToken operator;
 		public final Expr right;
+		public Specialization specialization = 
+				Specialization.UNINITIALIZED;
 	}
 	
 	public static class Variable extends Expr {
@@ -105,6 +175,14 @@ public abstract class Expr {
 	    }
 
 	    public final TToken name;
+	    // Filled in by the Analyzer: the slot of a local depth frames out, or
+	    // of the running function's captures, and GLOBAL for globals
+	    public int depth = GLOBAL;
+	    public int slot = 0;
+	    public boolean captured = false;
+	    public boolean boxed = false;
+	    // The global's index in the globals table, cached on first use
+	    public int index = -1;
 	}
 	
 	public static class Assign extends Expr {
@@ -120,6 +198,12 @@ public abstract class Expr {
 		
 		public final TToken name;
 		public final Expr value;
+		// Resolved the same way as Variable
+		public int depth = GLOBAL;
+		public int slot = 0;
+		public boolean captured = false;
+		public boolean boxed = false;
+		public int index = -1;
 	}
 	
 	public static class Logical extends Expr {
@@ -168,6 +252,25 @@ public abstract class Expr {
 
 	    public final Expr object;
 	    public final TToken name;
+	    public final InlineCache cache = 
+	    		new InlineCache();
+	}
+	
+	public static class Set extends Expr {
+	    public Set(Expr object, TToken name, 
+	    		Expr value) {
+	    		this.object = object;
+	    		this.name = name;
+	    		this.value = value;
+	    }
+
+	    public <R> R accept(Visitor<R> visitor) {
+	    		return visitor.visitSet(this);
+	    }
+
+	    public final Expr object;
+	    public final TToken name;
+	    public final Expr value;
 	}
 	
 	public static class Array extends Expr {
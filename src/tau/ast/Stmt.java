@@ -56,6 +56,10 @@ public abstract class Stmt {
 
 	    public final TToken name;
 	    public final Expr initializer;
+	    // Set by the Analyzer when closures share the variable through a Cell
+	    public boolean cell = false;
+	    // Set by the Analyzer for locals nothing assigns after the initializer
+	    public boolean constant = false;
 	}
 	
 	public static class Block extends Stmt {
@@ -68,6 +72,11 @@ public abstract class Stmt {
 		}
 		
 		public final List<Stmt> statements;
+		// Number of variables the block declares, filled in by the Analyzer
+		public int slots = 0;
+		// False when the block binds nothing, it then runs in the frame of
+		// the enclosing scope and the Analyzer doesn't count it as a scope
+		public boolean scoped = true;
 	}
 	
 	public static class If extends Stmt {
@@ -115,6 +124,8 @@ public abstract class Stmt {
 
 	    public final TToken name;
 	    public final Expr.Function expr;
+	    // Set by the Analyzer when closures share the variable through a Cell
+	    public boolean cell = false;
 	}
 	
 	public static class Return extends Stmt {
@@ -130,6 +141,8 @@ public abstract class Stmt {
 
 	    public final TToken keyword;
 	    public final Expr value;
+	    // Set by the Analyzer for return f(...) inside f itself
+	    public boolean tailCall = false;
 	}
 	
 	public static class Module extends Stmt {
@@ -145,6 +158,8 @@ public abstract class Stmt {
 
 	    public final TToken name;
 	    public final List<Stmt.Function> methods;
+	    // Set by the Analyzer when closures share the variable through a Cell
+	    public boolean cell = false;
 	}
 	
 	public static class Map extends Stmt {
@@ -160,6 +175,8 @@ public abstract class Stmt {
 
 	    public final TToken name;
 	    public final List<Stmt.MapValue> values;
+	    // Set by the Analyzer when closures share the variable through a Cell
+	    public boolean cell = false;
 	}
 	
 	public static class MapValue extends Stmt {
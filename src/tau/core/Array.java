@@ -7,6 +7,11 @@ import java.util.*;
 
 public class Array extends ModuleInstance {
 	public final List<Object> elements;
+	// Methods are bound to this list, so build each one once per array
+	// instead of on every property access
+	private ICallable getter = null;
+	private ICallable setter = null;
+	private ICallable remover = null;
 	
 	public Array(
 			List<Object> elements) {
@@ -15,49 +20,70 @@ public class Array extends ModuleInstance {
 	}
 	
 	public Object get(TToken name) {
-		if(name.lexeme.equals("length")) {
-			return elements.toArray().length;
-		} else if(name.lexeme.equals("get")) {
-			return new ICallable() {
-				@Override
-				public int arity() {
-					return 1;
-				}
-				@Override
-				public Object call(Interpreter interpreter,
-						List<Object> arguments) {
-					return elements.get(
-							((Double)arguments.get(0)).intValue());
-				}
-			};
-		} else if(name.lexeme.equals("set")) {
-			return new ICallable() {
-				@Override
-				public int arity() {
-					return 2;
-				}
-				@Override
-				public Object call(Interpreter interpreter,
-						List<Object> arguments) {
-					elements.set(((Double)arguments.get(0)).intValue(),
-							arguments.get(0));
-					return null;
-				}
-			};
-		} else if(name.lexeme.equals("remove")) {
-			return new ICallable() {
-				@Override
-				public int arity() {
-					return 1;
-				}
-				@Override
-				public Object call(Interpreter interpreter,
-						List<Object> arguments) {
-					elements.remove(
-							((Double)arguments.get(0)).intValue());
-					return null;
-				}
-			};
+		switch(name.lexeme) {
+		case "length":
+		{
+			return (long) elements.size();
+		}
+		case "get":
+		{
+			if(getter == null) {
+				getter = new ICallable() {
+					@Override
+					public int arity() {
+						return 1;
+					}
+					@Override
+					public Object call(Interpreter interpreter,
+							List<Object> arguments) {
+						return call1(interpreter, arguments.get(0));
+					}
+					@Override
+					public Object call1(Interpreter interpreter, Object a) {
+						return elements.get(((Number)a).intValue());
+					}
+				};
+			}
+			return getter;
+		}
+		case "set":
+		{
+			if(setter == null) {
+				setter = new ICallable() {
+					@Override
+					public int arity() {
+						return 2;
+					}
+					@Override
+					public Object call(Interpreter interpreter,
+							List<Object> arguments) {
+						elements.set(((Number)arguments.get(0)).intValue(),
+								arguments.get(0));
+						return null;
+					}
+				};
+			}
+			return setter;
+		}
+		case "remove":
+		{
+			if(remover == null) {
+				remover = new ICallable() {
+					@Override
+					public int arity() {
+						return 1;
+					}
+					@Override
+					public Object call(Interpreter interpreter,
+							List<Object> arguments) {
+						elements.remove(
+								((Number)arguments.get(0)).intValue());
+						return null;
+					}
+				};
+			}
+			return remover;
+		}
 		}
 		throw new Interpreter.RuntimeError(name, "Could not find property.");
 	}
@@ -15,6 +15,13 @@ public class IO extends ModuleInstance {
 		super(null);
 	}
 	
+	// Core properties never change, so a call site can keep whatever it
+	// looked up on this instance
+	@Override
+	public Object cacheKey() {
+		return this;
+	}
+	
 	public Object get(TToken name) {
 		if(name.lexeme.equals("readLine")) {
 			return new ICallable() {
@@ -41,8 +48,11 @@ public class IO extends ModuleInstance {
 				@Override
 				public Object call(Interpreter interpreter,
 						List<Object> arguments) {
-					System.out.println(Interpreter.stringify(
-							arguments.get(0)));
+					return call1(interpreter, arguments.get(0));
+				}
+				@Override
+				public Object call1(Interpreter interpreter, Object a) {
+					System.out.println(Interpreter.stringify(a));
 					return null;
 				}
 			};
@@ -12,6 +12,13 @@ public class SystemInstance extends ModuleInstance {
 		super(null);
 	}
 	
+	// Core properties never change, so a call site can keep whatever it
+	// looked up on this instance
+	@Override
+	public Object cacheKey() {
+		return this;
+	}
+	
 	public Object get(TToken name) {
 		if(name.lexeme.equals("gc")) {
 			return new ICallable() {
@@ -76,12 +83,12 @@ public class SystemInstance extends ModuleInstance {
 						List<Object> arguments) {
 					if(arguments.get(1) == null) {
 						System.out.println("Exited");
-						System.exit(((Double)arguments.get(0)).intValue());
+						System.exit(((Number)arguments.get(0)).intValue());
 						return null;
 					} else {
 						System.out.println(
 								Interpreter.stringify(arguments.get(1)));
-						System.exit(((Double)arguments.get(0)).intValue());
+						System.exit(((Number)arguments.get(0)).intValue());
 						return null;
 					}
 				}
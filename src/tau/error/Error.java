@@ -5,6 +5,20 @@ import tau.literal.*;
 import tau.interpreter.*;
 
 public class Error {
+	// Errors on a thread that's only trying whether its part of a source
+	// parses, which are counted there instead of reported
+	private static final ThreadLocal<int[]> trial = new ThreadLocal<>();
+	
+	public static void beginTrial() {
+		trial.set(new int[1]);
+	}
+	
+	public static int endTrial() {
+		int errors = trial.get()[0];
+		trial.remove();
+		return errors;
+	}
+	
 	public static void runtimeError(Interpreter.RuntimeError error) {
 	    System.err.println(error.getMessage() +
 	        "\n[line " + error.token.line + "]");
@@ -21,14 +35,26 @@ public class Error {
 	}
 	
 	public static void importError(String message) {
+		if(tried())
+			return;
 		System.err.println("[runtime] Import Error: " + message);
 		Tau.hadError = true;
 	}
 	
 	public static void report(Integer line,
 			String message) {
+		if(tried())
+			return;
 		System.err.println("[line " + line.toString() + "] Error: " +
 			message);
 		Tau.hadError = true;
 	}
+	
+	private static boolean tried() {
+		int[] errors = trial.get();
+		if(errors == null)
+			return false;
+		errors[0]++;
+		return true;
+	}
 }
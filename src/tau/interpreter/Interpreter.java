@@ -9,7 +9,12 @@ import java.nio.file.Paths;
 import tau.Tau;
 import tau.analyzer.Analyzer;
 import tau.ast.*;
+import tau.ast.Expr.Specialization;
+import tau.ast.Expr.Type;
 import tau.literal.*;
+import tau.optimizer.Hoister;
+import tau.optimizer.Inliner;
+import tau.optimizer.Optimizer;
 import tau.scanner.*;
 import tau.parser.*;
 import tau.error.Error;
@@ -19,14 +24,21 @@ import tau.core.*;
 import static tau.literal.TType.*;
 import java.io.*;
 
-public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
+public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Interpreter.Completion> {
 	public final Environment globals = 
 			new Environment();
 	private Environment environment = 
 			globals;
-	private final Map<Expr, Integer> locals = 
-			new HashMap<>();
+	private Object returnValue = null;
 	private String default_package_name = "_init.tau";
+	public boolean specialize = false;
+	public boolean jit = false;
+	// Loop iterations run so far, functions sample it to find hot loops
+	public int backEdges = 0;
+	// The function whose body is running and the arguments of the self
+	// call it ended with, so Function can loop instead of recursing
+	public Function running = null;
+	public Object[] tailArguments = null;
 	
 	public Interpreter() {
 		globals.define("IO", new IO());
@@ -53,24 +65,25 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		  }
 	}
 	
-	public static class Return extends RuntimeException {
-		  public final Object value;
-
-		  public Return(Object value) {
-			  super(null, null, false, false);
-			  this.value = value;
-		  }
+	private static class UnexpectedResult extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+		final Object value;
+		
+		UnexpectedResult(Object value) {
+			super(null, null, false, false);
+			this.value = value;
+		}
 	}
 	
-	public void resolve(Expr expr, int depth) {
-	    locals.put(expr, depth);
+	// How a statement finished, so that a return can unwind through
+	// blocks and loops without throwing
+	public enum Completion {
+		NORMAL, RETURN, TAIL_CALL
 	}
 	
 	public void interpret(List<Stmt> statements) {
 		try {
-			for (Stmt statement : statements) {
-		        execute(statement);
-		    }
+			executeBlock(statements, globals);
 		} catch (RuntimeError error) {
 		    Error.runtimeError(error);
 		}
@@ -82,137 +95,230 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 	}
 	
 	@Override
-	public Void visitExpression(Stmt.Expression stmt) {
+	public Completion visitExpression(Stmt.Expression stmt) {
 	    evaluate(stmt.expression);
-	    return null; 
+	    return Completion.NORMAL; 
 	}
 	
 	@Override
-	public Void visitModule(Stmt.Module stmt) {
-		environment.define(stmt.name.lexeme, null);
-		Map<String, Function> methods = new HashMap<>();
+	public Completion visitModule(Stmt.Module stmt) {
+		Cell cell = defineCell(stmt.cell);
+		Map<String, ICallable> methods = new HashMap<>();
 	    for (Stmt.Function method : stmt.methods) {
 	      Function function = new Function(method.name.lexeme, method.expr, environment);
 	      methods.put(method.name.lexeme, function);
 	    }
 	    Module mod = new Module(stmt.name.lexeme, methods);
-		environment.define(stmt.name.lexeme, mod);
-		return null;
+	    define(cell, stmt.name.lexeme, mod);
+		return Completion.NORMAL;
 	}
 	
 	@Override
-	public Void visitMap(Stmt.Map stmt) {
-		environment.define(stmt.name.lexeme, null);
-		Map<String, Stmt.MapValue> values =
+	public Completion visitMap(Stmt.Map stmt) {
+		Map<String, Object> values =
 				new HashMap<>();
 		for(Stmt.MapValue st : stmt.values) {
-			values.put(st.name.lexeme, st);
+			values.put(st.name.lexeme, st.value);
 		}
 		MapInstance map = new MapInstance(stmt.name, values);
-		environment.define(stmt.name.lexeme, map);
-		return null;
+		define(defineCell(stmt.cell), stmt.name.lexeme, map);
+		return Completion.NORMAL;
 	}
 	
 	@Override
-	public Void visitMapValue(Stmt.MapValue stmt) {
-		return null;
+	public Completion visitMapValue(Stmt.MapValue stmt) {
+		return Completion.NORMAL;
 	}
 	
 	@Override
-	public Void visitDebug(Stmt.Debug stmt) {
+	public Completion visitDebug(Stmt.Debug stmt) {
 	    Object value = evaluate(stmt.expression);
 	    System.out.println(stringify(value));
-	    return null;
+	    return Completion.NORMAL;
 	}
 	
 	@Override
-	public Void visitFunction(Stmt.Function stmt) {
+	public Completion visitFunction(Stmt.Function stmt) {
+		Cell cell = defineCell(stmt.cell);
 		Function function = new Function(stmt.name.lexeme, stmt.expr, environment);
-		environment.define(stmt.name.lexeme, function);
-		return null;
+		define(cell, stmt.name.lexeme, function);
+		return Completion.NORMAL;
 	}
 	
 	@Override
-	public Void visitIf(Stmt.If stmt) {
+	public Completion visitIf(Stmt.If stmt) {
 	    if (truthy(evaluate(stmt.condition))) {
-	      execute(stmt.thenBranch);
+	      return execute(stmt.thenBranch);
 	    } else if (stmt.elseBranch != null) {
-	      execute(stmt.elseBranch);
+	      return execute(stmt.elseBranch);
 	    }
-	    return null;
+	    return Completion.NORMAL;
 	}
 	
 	@Override
-	public Void visitWhile(Stmt.While stmt) {
+	public Completion visitWhile(Stmt.While stmt) {
 	    while (truthy(evaluate(stmt.condition))) {
-	    		execute(stmt.body);
+	    		backEdges++;
+	    		Completion completion = execute(stmt.body);
+	    		if (completion != Completion.NORMAL)
+	    			return completion;
 	    }
-	    return null;
+	    return Completion.NORMAL;
 	}
 	
 	@Override
-	public Void visitReturn(Stmt.Return stmt) {
+	public Completion visitReturn(Stmt.Return stmt) {
+	    if (stmt.tailCall) {
+	    		Expr.Call call = (Expr.Call) stmt.value;
+	    		Object callee = evaluate(call.callee);
+	    		if (callee == running) {
+	    			Object[] arguments = new Object[call.arguments.size()];
+	    			for (int i = 0; i < arguments.length; i++) {
+	    				arguments[i] = evaluate(call.arguments.get(i));
+	    			}
+	    			callable(call, callee, arguments.length);
+	    			tailArguments = arguments;
+	    			return Completion.TAIL_CALL;
+	    		}
+	    		returnValue = call(call, callee);
+	    		return Completion.RETURN;
+	    }
 	    Object value = null;
 	    if (stmt.value != null) 
 	    		value = evaluate(stmt.value);
-	    throw new Return(value);
+	    returnValue = value;
+	    return Completion.RETURN;
 	}
 
 	@Override
-	public Void visitVar(Stmt.Var stmt) {
+	public Completion visitVar(Stmt.Var stmt) {
+		Cell cell = defineCell(stmt.cell);
 	    Object value = null;
 	    if (stmt.initializer != null) {
 	    		value = evaluate(stmt.initializer);
 	    }
-	    environment.define(stmt.name.lexeme, value);
-	    return null;
+	    define(cell, stmt.name.lexeme, value);
+	    return Completion.NORMAL;
 	}
 	
 	@Override
-	public Void visitBlock(Stmt.Block stmt) {
-	    executeBlock(stmt.statements, new Environment(environment));
-	    return null;
+	public Completion visitBlock(Stmt.Block stmt) {
+	    if (!stmt.scoped) {
+	    		for (Stmt statement : stmt.statements) {
+	    			Completion completion = execute(statement);
+	    			if (completion != Completion.NORMAL)
+	    				return completion;
+	    		}
+	    		return Completion.NORMAL;
+	    }
+	    return executeBlock(stmt.statements, new Environment(environment, stmt.slots));
 	}
 	
 	@Override
-	public Void visitImport(Stmt.Import stmt) {
+	public Completion visitImport(Stmt.Import stmt) {
 		processImport((String)stmt.expr.value);
-		return null;
+		return Completion.NORMAL;
 	}
 	
 	@Override
 	public Object visitCall(Expr.Call expr) {
-		Object callee = evaluate(expr.callee);
+		return call(expr, evaluate(expr.callee));
+	}
+	
+	private Object call(Expr.Call expr, Object callee) {
+		List<Expr> args = expr.arguments;
+		switch(args.size()) {
+		case 0:
+		{
+			return callable(expr, callee, 0).call0(this);
+		}
+		case 1:
+		{
+			Object a = evaluate(args.get(0));
+			return callable(expr, callee, 1).call1(this, a);
+		}
+		case 2:
+		{
+			Object a = evaluate(args.get(0));
+			Object b = evaluate(args.get(1));
+			return callable(expr, callee, 2).call2(this, a, b);
+		}
+		case 3:
+		{
+			Object a = evaluate(args.get(0));
+			Object b = evaluate(args.get(1));
+			Object c = evaluate(args.get(2));
+			return callable(expr, callee, 3).call3(this, a, b, c);
+		}
+		case 4:
+		{
+			Object a = evaluate(args.get(0));
+			Object b = evaluate(args.get(1));
+			Object c = evaluate(args.get(2));
+			Object d = evaluate(args.get(3));
+			return callable(expr, callee, 4).call4(this, a, b, c, d);
+		}
+		}
 		List<Object> arguments = 
 				new ArrayList<>();
-		for(Expr argument : expr.arguments) {
+		for(Expr argument : args) {
 			arguments.add(evaluate(argument));
 		}
-		if (!(callee instanceof ICallable)) {
-		      throw new RuntimeError(expr.paren,
-		          "Can only call functions and classes.");
-		}
-		ICallable called = (ICallable)callee;
-		if (arguments.size() != called.arity()) {
-			throw new RuntimeError(expr.paren, "Expected " +
-		          called.arity() + " arguments but got " +
-		          arguments.size() + ".");
-		}
-		return called.call(this, arguments);
+		return callable(expr, callee, arguments.size()).call(this, arguments);
 	}
 	
 	@Override
 	public Object visitGet(Expr.Get expr) {
-	    Object object = evaluate(expr.object);
+	    return getProperty(expr, evaluate(expr.object));
+	}
+	
+	public Object getProperty(Expr.Get expr, Object object) {
 	    if (object instanceof ModuleInstance) {
-	      return ((ModuleInstance) object).get(expr.name);
+	      ModuleInstance instance = (ModuleInstance) object;
+	      Object key = instance.cacheKey();
+	      if (key == null)
+	    	  	return instance.get(expr.name);
+	      Object property = expr.cache.lookup(key);
+	      if (property == InlineCache.MISS) {
+	    	  	property = instance.lookup(expr.name);
+	    	  	expr.cache.update(key, property);
+	      }
+	      return instance.read(property);
 	    } else if (object instanceof MapInstance) {
-		  return evaluate((Expr) ((MapInstance) object).get(expr.name));
+		  // Map values only see the globals, so evaluate them there rather
+		  // than letting closures they create capture the current frame
+		  Object value = expr.cache.lookup(object);
+		  if (value == InlineCache.MISS) {
+			  value = ((MapInstance) object).get(expr.name);
+			  expr.cache.update(object, value);
+		  }
+		  Environment previous = this.environment;
+		  try {
+			  this.environment = globals;
+			  return evaluate((Expr) value);
+		  } finally {
+			  this.environment = previous;
+		  }
 		}
 	    throw new RuntimeError(expr.name,
 	        "Only instances have properties.");
 	}
 	
+	@Override
+	public Object visitSet(Expr.Set expr) {
+	    Object object = evaluate(expr.object);
+	    return setProperty(expr, object, evaluate(expr.value));
+	}
+	
+	public Object setProperty(Expr.Set expr, Object object, Object value) {
+	    if (!(object instanceof ModuleInstance)) {
+	    		throw new RuntimeError(expr.name,
+	    				"Only instances have fields.");
+	    }
+	    ((ModuleInstance) object).set(expr.name, value);
+	    return value;
+	}
+	
 	@Override
 	public Object visitLogical(Expr.Logical expr) {
 		Object left = evaluate(expr.left);
@@ -227,7 +333,13 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 	@Override
 	public Object visitAssign(Expr.Assign expr) {
 		Object value = evaluate(expr.value);
-		environment.assign(expr.name, value);
+		if (expr.depth == Expr.GLOBAL) {
+			globals.assign(expr, value);
+		} else if (expr.boxed) {
+			((Cell) slot(expr.captured, expr.depth, expr.slot)).value = value;
+		} else {
+			environment.assignAt(expr.depth, expr.slot, value);
+		}
 		return value;
 	}
 	
@@ -238,7 +350,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 	
 	@Override
 	public Object visitVariable(Expr.Variable expr) {
-		return lookUpVariable(expr.name, expr);
+		return lookUpVariable(expr);
 	}
 	
 	@Override
@@ -255,11 +367,77 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 	
 	@Override
 	public Object visitUnary(Expr.Unary expr) {
-		Object right = evaluate(expr.right);
+		if (specialize && expr.operator.type == MINUS) {
+			try {
+				switch(expr.specialization) {
+				case UNINITIALIZED:
+					return specialize(expr, evaluate(expr.right));
+				case INTEGER:
+					return Numbers.box(unaryLong(expr));
+				case NUMBER:
+					return unaryDouble(expr);
+				default:
+					break;
+				}
+			} catch (UnexpectedResult result) {
+				return result.value;
+			}
+		}
+		return unary(expr, evaluate(expr.right));
+	}
+	
+	@Override
+	public Object visitBinary(Expr.Binary expr) {
+		if (numbers(expr))
+			return numbers(expr, evaluate(expr.left), evaluate(expr.right));
+		if (!specialize) 
+			return binary(expr, evaluate(expr.left), evaluate(expr.right));
+		switch(expr.specialization) {
+		case UNINITIALIZED:
+		{
+			return specialize(expr, evaluate(expr.left), evaluate(expr.right));
+		}
+		case GENERIC:
+		{
+			return binary(expr, evaluate(expr.left), evaluate(expr.right));
+		}
+		case STRING:
+		{
+			Object left = evaluate(expr.left);
+			Object right = evaluate(expr.right);
+			if (left instanceof String && right instanceof String) {
+				return (String)left + (String)right;
+			}
+			return deoptimize(expr, left, right);
+		}
+		case INTEGER:
+		{
+			if (!isArithmetic(expr.operator.type))
+				return compareLongs(expr);
+			try {
+				return Numbers.box(binaryLong(expr));
+			} catch (UnexpectedResult result) {
+				return result.value;
+			}
+		}
+		default:
+		{
+			if (!isArithmetic(expr.operator.type))
+				return compareDoubles(expr);
+			try {
+				return binaryDouble(expr);
+			} catch (UnexpectedResult result) {
+				return result.value;
+			}
+		}
+		}
+	}
+	
+	public Object unary(Expr.Unary expr, Object right) {
 		switch(expr.operator.type) {
 		case MINUS:
 		{
-			return -(double)right;
+			return Numbers.negate(right);
 		}
 		case BANG:
 		{
@@ -269,10 +447,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		return null;
 	}
 	
-	@Override
-	public Object visitBinary(Expr.Binary expr) {
-		Object left = evaluate(expr.left);
-		Object right = evaluate(expr.right);
+	public Object binary(Expr.Binary expr, Object left, Object right) {
 		switch(expr.operator.type) {
 		case BANG_EQUAL:
 		{
@@ -285,27 +460,27 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		case GREATER:
 		{
 			checkNumberOperands(expr.operator, left, right);
-	        return (double)left > (double)right;
+	        return Numbers.greater(left, right);
 		}
 	    case GREATER_EQUAL:
 	    {
 	    		checkNumberOperands(expr.operator, left, right);
-	        return (double)left >= (double)right;
+	        return Numbers.greaterEqual(left, right);
 	    }
 	    case LESS:
 	    {
 	    		checkNumberOperands(expr.operator, left, right);
-	        return (double)left < (double)right;
+	        return Numbers.less(left, right);
 	    }
 	    case LESS_EQUAL:
 	    {
 	    		checkNumberOperands(expr.operator, left, right);
-	        return (double)left <= (double)right;
+	        return Numbers.lessEqual(left, right);
 	    }
 		case PLUS:
 		{
-	        if (left instanceof Double && right instanceof Double) {
-	        		return (double)left + (double)right;
+	        if (Numbers.isNumber(left) && Numbers.isNumber(right)) {
+	        		return Numbers.add(left, right);
 	        } 
 	        if (left instanceof String && right instanceof String) {
 	        		return (String)left + (String)right;
@@ -316,61 +491,370 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		case MINUS:
 		{
 			checkNumberOperand(expr.operator, right);
-			return (double)left - (double)right;
+			return Numbers.subtract(left, right);
 		}
 		case SLASH:
 		{
 			checkNumberOperands(expr.operator, left, right);
-			return (double)left / (double)right;
+			return Numbers.divide(left, right);
 		}
 		case STAR:
 		{
 			checkNumberOperands(expr.operator, left, right);
-			return (double)left * (double)right;
+			return Numbers.multiply(left, right);
+		}
+		}
+		return null;
+	}
+	
+	// Typed evaluation: operands the Analyzer proved are numbers need no
+	// checks
+	
+	private boolean numbers(Expr.Binary expr) {
+		return expr.left.type == Type.NUMBER && expr.right.type == Type.NUMBER;
+	}
+	
+	private Object numbers(Expr.Binary expr, Object left, Object right) {
+		switch(expr.operator.type) {
+		case BANG_EQUAL:
+			return !Numbers.equal(left, right);
+		case EQUAL_EQUAL:
+			return Numbers.equal(left, right);
+		case GREATER:
+			return Numbers.greater(left, right);
+		case GREATER_EQUAL:
+			return Numbers.greaterEqual(left, right);
+		case LESS:
+			return Numbers.less(left, right);
+		case LESS_EQUAL:
+			return Numbers.lessEqual(left, right);
+		case PLUS:
+			return Numbers.add(left, right);
+		case MINUS:
+			return Numbers.subtract(left, right);
+		case STAR:
+			return Numbers.multiply(left, right);
+		case SLASH:
+			return Numbers.divide(left, right);
+		}
+		return null;
+	}
+	
+	// Specialized evaluation: operator nodes settle on the operand types
+	// they first see, integers or doubles, and run on them unboxed until
+	// an operand or an overflow turns out otherwise, then fall back to
+	// generic for good
+	
+	private Object specialize(Expr.Unary expr, Object right) {
+		if (right instanceof Long)
+			expr.specialization = Specialization.INTEGER;
+		else if (right instanceof Double)
+			expr.specialization = Specialization.NUMBER;
+		else
+			expr.specialization = Specialization.GENERIC;
+		return unary(expr, right);
+	}
+	
+	private Object specialize(Expr.Binary expr, Object left, Object right) {
+		if (left instanceof Long && right instanceof Long &&
+				expr.operator.type != SLASH)
+			expr.specialization = Specialization.INTEGER;
+		else if (left instanceof Double && right instanceof Double)
+			expr.specialization = Specialization.NUMBER;
+		else if (expr.operator.type == PLUS &&
+				left instanceof String && right instanceof String)
+			expr.specialization = Specialization.STRING;
+		else
+			expr.specialization = Specialization.GENERIC;
+		return binary(expr, left, right);
+	}
+	
+	private long evaluateLong(Expr expr) {
+		if (expr instanceof Expr.Variable) {
+			Expr.Variable variable = (Expr.Variable)expr;
+			return expectLong(lookUpVariable(variable));
+		} else if (expr instanceof Expr.Binary) {
+			Expr.Binary binary = (Expr.Binary)expr;
+			if (isArithmetic(binary.operator.type) &&
+					binary.specialization == Specialization.INTEGER) {
+				return binaryLong(binary);
+			}
+		} else if (expr instanceof Expr.Unary) {
+			Expr.Unary unary = (Expr.Unary)expr;
+			if (unary.operator.type == MINUS &&
+					unary.specialization == Specialization.INTEGER) {
+				return unaryLong(unary);
+			}
+		} else if (expr instanceof Expr.Grouping) {
+			return evaluateLong(((Expr.Grouping)expr).expression);
+		}
+		return expectLong(evaluate(expr));
+	}
+	
+	private long unaryLong(Expr.Unary expr) {
+		long right;
+		try {
+			right = evaluateLong(expr.right);
+		} catch (UnexpectedResult result) {
+			expr.specialization = Specialization.GENERIC;
+			return expectLong(unary(expr, result.value));
+		}
+		if (right == Long.MIN_VALUE) {
+			expr.specialization = Specialization.GENERIC;
+			return expectLong(unary(expr, right));
+		}
+		return -right;
+	}
+	
+	private long binaryLong(Expr.Binary expr) {
+		long left;
+		try {
+			left = evaluateLong(expr.left);
+		} catch (UnexpectedResult result) {
+			return expectLong(deoptimize(expr, result.value, evaluate(expr.right)));
+		}
+		long right;
+		try {
+			right = evaluateLong(expr.right);
+		} catch (UnexpectedResult result) {
+			return expectLong(deoptimize(expr, left, result.value));
+		}
+		try {
+			switch(expr.operator.type) {
+			case PLUS:
+				return Math.addExact(left, right);
+			case MINUS:
+				return Math.subtractExact(left, right);
+			default:
+				return Math.multiplyExact(left, right);
+			}
+		} catch (ArithmeticException overflow) {
+			return expectLong(deoptimize(expr, left, right));
+		}
+	}
+	
+	private Object compareLongs(Expr.Binary expr) {
+		long left;
+		try {
+			left = evaluateLong(expr.left);
+		} catch (UnexpectedResult result) {
+			return deoptimize(expr, result.value, evaluate(expr.right));
+		}
+		long right;
+		try {
+			right = evaluateLong(expr.right);
+		} catch (UnexpectedResult result) {
+			return deoptimize(expr, left, result.value);
+		}
+		switch(expr.operator.type) {
+		case BANG_EQUAL:
+			return left != right;
+		case EQUAL_EQUAL:
+			return left == right;
+		case GREATER:
+			return left > right;
+		case GREATER_EQUAL:
+			return left >= right;
+		case LESS:
+			return left < right;
+		case LESS_EQUAL:
+			return left <= right;
+		}
+		return null;
+	}
+	
+	private double evaluateDouble(Expr expr) {
+		if (expr instanceof Expr.Variable) {
+			Expr.Variable variable = (Expr.Variable)expr;
+			return expectDouble(lookUpVariable(variable));
+		} else if (expr instanceof Expr.Binary) {
+			Expr.Binary binary = (Expr.Binary)expr;
+			if (isArithmetic(binary.operator.type) &&
+					binary.specialization == Specialization.NUMBER) {
+				return binaryDouble(binary);
+			}
+		} else if (expr instanceof Expr.Unary) {
+			Expr.Unary unary = (Expr.Unary)expr;
+			if (unary.operator.type == MINUS &&
+					unary.specialization == Specialization.NUMBER) {
+				return unaryDouble(unary);
+			}
+		} else if (expr instanceof Expr.Grouping) {
+			return evaluateDouble(((Expr.Grouping)expr).expression);
+		}
+		return expectDouble(evaluate(expr));
+	}
+	
+	private double unaryDouble(Expr.Unary expr) {
+		double right;
+		try {
+			right = evaluateDouble(expr.right);
+		} catch (UnexpectedResult result) {
+			expr.specialization = Specialization.GENERIC;
+			return expectDouble(unary(expr, result.value));
+		}
+		return -right;
+	}
+	
+	private double binaryDouble(Expr.Binary expr) {
+		double left;
+		try {
+			left = evaluateDouble(expr.left);
+		} catch (UnexpectedResult result) {
+			return expectDouble(deoptimize(expr, result.value, evaluate(expr.right)));
+		}
+		double right;
+		try {
+			right = evaluateDouble(expr.right);
+		} catch (UnexpectedResult result) {
+			return expectDouble(deoptimize(expr, left, result.value));
+		}
+		switch(expr.operator.type) {
+		case PLUS:
+			return left + right;
+		case MINUS:
+			return left - right;
+		case STAR:
+			return left * right;
+		default:
+			return left / right;
+		}
+	}
+	
+	private Object compareDoubles(Expr.Binary expr) {
+		double left;
+		try {
+			left = evaluateDouble(expr.left);
+		} catch (UnexpectedResult result) {
+			return deoptimize(expr, result.value, evaluate(expr.right));
+		}
+		double right;
+		try {
+			right = evaluateDouble(expr.right);
+		} catch (UnexpectedResult result) {
+			return deoptimize(expr, left, result.value);
 		}
+		switch(expr.operator.type) {
+		case BANG_EQUAL:
+			return Double.doubleToLongBits(left) != Double.doubleToLongBits(right);
+		case EQUAL_EQUAL:
+			return Double.doubleToLongBits(left) == Double.doubleToLongBits(right);
+		case GREATER:
+			return left > right;
+		case GREATER_EQUAL:
+			return left >= right;
+		case LESS:
+			return left < right;
+		case LESS_EQUAL:
+			return left <= right;
 		}
 		return null;
 	}
 	
+	private Object deoptimize(Expr.Binary expr, Object left, Object right) {
+		expr.specialization = Specialization.GENERIC;
+		return binary(expr, left, right);
+	}
+	
+	private long expectLong(Object value) {
+		if (value instanceof Long) return (long)value;
+		throw new UnexpectedResult(value);
+	}
+	
+	private double expectDouble(Object value) {
+		if (value instanceof Double) return (double)value;
+		throw new UnexpectedResult(value);
+	}
+	
+	private boolean isArithmetic(TType type) {
+		return type == PLUS || type == MINUS || 
+				type == STAR || type == SLASH;
+	}
+	
 	// Helpers
 	
+	public ICallable callable(Expr.Call expr, Object callee, int count) {
+		if (!(callee instanceof ICallable)) {
+		      throw new RuntimeError(expr.paren,
+		          "Can only call functions and classes.");
+		}
+		ICallable called = (ICallable)callee;
+		if (count != called.arity()) {
+			throw new RuntimeError(expr.paren, "Expected " +
+		          called.arity() + " arguments but got " +
+		          count + ".");
+		}
+		return called;
+	}
+	
 	private void checkNumberOperand(TToken operator, Object operand) {
-	    if (operand instanceof Double) return;
+	    if (Numbers.isNumber(operand)) return;
 	    throw new RuntimeError(operator, "Operand must be a number.");
 	}
 	
 	private void checkNumberOperands(TToken operator,
             Object left, Object right) {
-		if (left instanceof Double && right instanceof Double) return;
+		if (Numbers.isNumber(left) && Numbers.isNumber(right)) return;
 		throw new RuntimeError(operator, "Operands must be numbers.");
 	}
 	
-	private void execute(Stmt stmt) {
-	    stmt.accept(this);
+	private Completion execute(Stmt stmt) {
+	    return stmt.accept(this);
 	}
 	
-	private Object lookUpVariable(TToken name, Expr expr) {
-	    Integer distance = locals.get(expr);
-	    if (distance != null) {
-	    		return environment.getAt(distance, name.lexeme);
-	    } else {
-	    		return globals.get(name);
-	    }
+	private Object lookUpVariable(Expr.Variable expr) {
+	    if (expr.depth == Expr.GLOBAL)
+	    		return globals.get(expr);
+	    Object value = slot(expr.captured, expr.depth, expr.slot);
+	    return expr.boxed ? ((Cell) value).value : value;
 	}
 	
-	public void executeBlock(List<Stmt> statements,
+	private Object slot(boolean captured, int depth, int slot) {
+	    if (captured)
+	    		return environment.captures[slot];
+	    return environment.getAt(depth, slot);
+	}
+	
+	// A variable in a Cell gets it before its value is computed, so that
+	// closures created meanwhile, like a function naming itself, share it
+	private Cell defineCell(boolean boxed) {
+		if (!boxed)
+			return null;
+		Cell cell = new Cell();
+		environment.define(cell);
+		return cell;
+	}
+	
+	private void define(Cell cell, String name, Object value) {
+		if (cell != null) {
+			cell.value = value;
+		} else {
+			environment.define(name, value);
+		}
+	}
+	
+	public Completion executeBlock(List<Stmt> statements,
 			Environment environment) {
 		Environment previous = this.environment;
 		try {
 			this.environment = environment;
 			for(Stmt statement : statements) {
-				execute(statement);
+				Completion completion = execute(statement);
+				if (completion != Completion.NORMAL)
+					return completion;
 			}
+			return Completion.NORMAL;
 		} finally {
 			this.environment = previous;
 		}
 	}
 	
+	public Object takeReturnValue() {
+		Object value = returnValue;
+		returnValue = null;
+		return value;
+	}
+	
 	private String getNameFromPath(String name) {
 		String str = name.replaceAll("\\.\\w+", "");
 		return str;
@@ -380,7 +864,9 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 	    // nil is only equal to nil
 	    if (a == null && b == null) return true;
 	    if (a == null) return false;
-
+	    // 1 and 1.0 are the same number
+	    if (Numbers.isNumber(a) && Numbers.isNumber(b))
+	    		return Numbers.equal(a, b);
 	    return a.equals(b);
 	}
 	
@@ -388,32 +874,20 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		return expr.accept(this);
 	}
 	
-	private void processImport(String path) {
+	public void processImport(String path) {
 		if(Files.isRegularFile(Paths.get(path))) {
 			try {
-				FileReader file = 
-						new FileReader(path);
-				BufferedReader reader =
-						new BufferedReader(file);
-				String line = null;
-				StringBuilder builder =
-						new StringBuilder("");
-				while((line = reader.readLine()) != null) {
-					builder.append(line + " ");
-				}
-				reader.close();
-				TScanner scanner = new TScanner(builder.toString());
-				List<TToken> toks = scanner.scan();
-				if(Tau.hadError)
-					return;
-				Parser parse = new Parser(toks);
-				List<Stmt> statements = parse.parseTokens();
+				List<Stmt> statements =
+						new SourceParser(Source.load(path), true).parse();
 				if(Tau.hadError)
 					return;
-				Analyzer ana = new Analyzer(this);
+				new Inliner(false).inline(statements);
+				new Hoister(false).hoist(statements);
+				Analyzer ana = new Analyzer(false);
 				ana.resolve(statements);
 				if(Tau.hadError)
 					return;
+				new Optimizer().optimize(statements);
 				this.interpret(statements);
 				if(Tau.hadError)
 					return;
@@ -423,7 +897,29 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		}
 	}
 	
-	private boolean truthy(Object object) {
+	// Parses and analyzes a function an import left unparsed, as its own
+	// top-level declaration, which is how it was seen there
+	public void complete(Expr.Function function) {
+		Expr.Function.Deferred deferred = function.deferred;
+		List<Stmt> body = new Parser(deferred.tokens)
+				.parseBody(deferred.start, deferred.end);
+		if(Tau.hadError)
+			throw new RuntimeError(deferred.name,
+					"Function '" + deferred.name.lexeme + "' has errors.");
+		function.body.addAll(body);
+		function.deferred = null;
+		List<Stmt> statements = new ArrayList<>();
+		statements.add(new Stmt.Function(deferred.name, function));
+		new Inliner(false).inline(statements);
+		new Hoister(false).hoist(statements);
+		new Analyzer(false).resolve(statements);
+		if(Tau.hadError)
+			throw new RuntimeError(deferred.name,
+					"Function '" + deferred.name.lexeme + "' has errors.");
+		new Optimizer().optimize(statements);
+	}
+	
+	public boolean truthy(Object object) {
 		if(object == null) return false;
 		if(object instanceof Boolean) return (boolean)object;
 		return true;
@@ -0,0 +1,620 @@
+package tau.jit;
+
+import java.lang.invoke.*;
+import java.util.*;
+import tau.ast.*;
+import tau.core.*;
+import tau.interpreter.*;
+import tau.literal.*;
+import tau.runtime.*;
+import tau.runtime.Function;
+import static java.lang.invoke.MethodType.methodType;
+
+// Compiles a hot function body into a tree of method handles that run on the
+// same Environment frames as the interpreter. Every handle takes the current
+// frame, expressions return their value and statements return NORMAL when
+// they fall through or the value of the return that ended them.
+public class Compiler implements Expr.Visitor<MethodHandle>, Stmt.Visitor<MethodHandle> {
+	public static final Object NORMAL = new Object();
+	private static final MethodHandle GET_AT;
+	private static final MethodHandle GET_GLOBAL;
+	private static final MethodHandle ASSIGN_AT;
+	private static final MethodHandle ASSIGN_GLOBAL;
+	private static final MethodHandle DEFINE;
+	private static final MethodHandle DEFINE_FUNCTION;
+	private static final MethodHandle DEFINE_CELL;
+	private static final MethodHandle SET_CELL;
+	private static final MethodHandle UNBOX;
+	private static final MethodHandle GET_CAPTURED;
+	private static final MethodHandle ASSIGN_CELL_AT;
+	private static final MethodHandle ASSIGN_CAPTURED_CELL;
+	private static final MethodHandle CLOSURE;
+	private static final MethodHandle FUNCTION;
+	private static final MethodHandle ENTER;
+	private static final MethodHandle PRINT;
+	private static final MethodHandle IS_NORMAL;
+	private static final MethodHandle LOOP;
+	private static final MethodHandle ARRAY;
+	private static final MethodHandle CALL;
+	private static final MethodHandle TAIL_CALL;
+	private static final MethodHandle[] CALLS;
+	private static final MethodHandle BINARY;
+	private static final MethodHandle UNARY;
+	private static final MethodHandle TRUTHY;
+	private static final MethodHandle GET_PROPERTY;
+	private static final MethodHandle SET_PROPERTY;
+	private static final Map<TType, MethodHandle> OPERATORS = 
+			new EnumMap<>(TType.class);
+	
+	static {
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			GET_AT = lookup.findVirtual(Environment.class, "getAt",
+					methodType(Object.class, int.class, int.class));
+			GET_GLOBAL = lookup.findStatic(Compiler.class, "getGlobal",
+					methodType(Object.class, Environment.class, Expr.Variable.class, Environment.class));
+			ASSIGN_AT = lookup.findStatic(Compiler.class, "assignAt",
+					methodType(Object.class, int.class, int.class, Object.class, Environment.class));
+			ASSIGN_GLOBAL = lookup.findStatic(Compiler.class, "assignGlobal",
+					methodType(Object.class, Environment.class, Expr.Assign.class, Object.class, Environment.class));
+			DEFINE = lookup.findStatic(Compiler.class, "define",
+					methodType(Object.class, Object.class, Environment.class));
+			DEFINE_CELL = lookup.findStatic(Compiler.class, "defineCell",
+					methodType(Cell.class, Environment.class));
+			SET_CELL = lookup.findStatic(Compiler.class, "setCell",
+					methodType(Object.class, Cell.class, Object.class, Environment.class));
+			UNBOX = lookup.findStatic(Compiler.class, "unbox",
+					methodType(Object.class, Object.class));
+			GET_CAPTURED = lookup.findStatic(Compiler.class, "getCaptured",
+					methodType(Object.class, int.class, Environment.class));
+			ASSIGN_CELL_AT = lookup.findStatic(Compiler.class, "assignCellAt",
+					methodType(Object.class, int.class, int.class, Object.class, Environment.class));
+			ASSIGN_CAPTURED_CELL = lookup.findStatic(Compiler.class, "assignCapturedCell",
+					methodType(Object.class, int.class, Object.class, Environment.class));
+			DEFINE_FUNCTION = lookup.findStatic(Compiler.class, "defineFunction",
+					methodType(Object.class, Stmt.Function.class, Environment.class));
+			CLOSURE = lookup.findStatic(Compiler.class, "closure",
+					methodType(Object.class, Expr.Function.class, Environment.class));
+			FUNCTION = lookup.findStatic(Compiler.class, "function",
+					methodType(Object.class, Stmt.Function.class, Environment.class));
+			ENTER = lookup.findStatic(Compiler.class, "enter",
+					methodType(Environment.class, int.class, Environment.class));
+			PRINT = lookup.findStatic(Compiler.class, "print",
+					methodType(Object.class, Object.class));
+			IS_NORMAL = lookup.findStatic(Compiler.class, "isNormal",
+					methodType(boolean.class, Object.class));
+			LOOP = lookup.findStatic(Compiler.class, "loop",
+					methodType(Object.class, MethodHandle.class, MethodHandle.class, Environment.class));
+			ARRAY = lookup.findStatic(Compiler.class, "array",
+					methodType(Object.class, Object[].class));
+			CALL = lookup.findStatic(Compiler.class, "call",
+					methodType(Object.class, Interpreter.class, Expr.Call.class, Object.class, Object[].class));
+			TAIL_CALL = lookup.findStatic(Compiler.class, "tailCall",
+					methodType(Object.class, Interpreter.class, Expr.Call.class, Object.class, Object[].class));
+			CALLS = new MethodHandle[5];
+			for (int i = 0; i < CALLS.length; i++) {
+				List<Class<?>> parameters = new ArrayList<>(Arrays.asList(
+						Interpreter.class, Expr.Call.class, Object.class));
+				parameters.addAll(Collections.nCopies(i, Object.class));
+				CALLS[i] = lookup.findStatic(Compiler.class, "call" + i,
+						methodType(Object.class, parameters));
+			}
+			BINARY = lookup.findVirtual(Interpreter.class, "binary",
+					methodType(Object.class, Expr.Binary.class, Object.class, Object.class));
+			UNARY = lookup.findVirtual(Interpreter.class, "unary",
+					methodType(Object.class, Expr.Unary.class, Object.class));
+			TRUTHY = lookup.findVirtual(Interpreter.class, "truthy",
+					methodType(boolean.class, Object.class));
+			GET_PROPERTY = lookup.findVirtual(Interpreter.class, "getProperty",
+					methodType(Object.class, Expr.Get.class, Object.class));
+			SET_PROPERTY = lookup.findVirtual(Interpreter.class, "setProperty",
+					methodType(Object.class, Expr.Set.class, Object.class, Object.class));
+			MethodType operator = methodType(Object.class,
+					Interpreter.class, Expr.Binary.class, Object.class, Object.class);
+			OPERATORS.put(TType.PLUS, lookup.findStatic(Compiler.class, "add", operator));
+			OPERATORS.put(TType.MINUS, lookup.findStatic(Compiler.class, "subtract", operator));
+			OPERATORS.put(TType.STAR, lookup.findStatic(Compiler.class, "multiply", operator));
+			OPERATORS.put(TType.SLASH, lookup.findStatic(Compiler.class, "divide", operator));
+			OPERATORS.put(TType.GREATER, lookup.findStatic(Compiler.class, "greater", operator));
+			OPERATORS.put(TType.GREATER_EQUAL, lookup.findStatic(Compiler.class, "greaterEqual", operator));
+			OPERATORS.put(TType.LESS, lookup.findStatic(Compiler.class, "less", operator));
+			OPERATORS.put(TType.LESS_EQUAL, lookup.findStatic(Compiler.class, "lessEqual", operator));
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+	
+	// Thrown for constructs only the interpreter runs, the whole function
+	// then stays interpreted
+	private static class Unsupported extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+		
+		Unsupported() {
+			super(null, null, false, false);
+		}
+	}
+	
+	private final Interpreter interpreter;
+	
+	public Compiler(Interpreter interpreter) {
+		this.interpreter = interpreter;
+	}
+	
+	// Returns a (Environment)Object handle running the body in a frame set
+	// up by Function, or null if the body can't be compiled
+	public MethodHandle compile(Expr.Function function) {
+		try {
+			return sequence(function.body);
+		} catch (Unsupported e) {
+			return null;
+		}
+	}
+	
+	@Override
+	public MethodHandle visitExpression(Stmt.Expression stmt) {
+		return MethodHandles.filterReturnValue(compile(stmt.expression),
+				MethodHandles.dropArguments(constant(NORMAL), 0, Object.class));
+	}
+	
+	@Override
+	public MethodHandle visitDebug(Stmt.Debug stmt) {
+		return MethodHandles.filterReturnValue(compile(stmt.expression), PRINT);
+	}
+	
+	@Override
+	public MethodHandle visitVar(Stmt.Var stmt) {
+		MethodHandle value = stmt.initializer == null ? 
+				value(null) : compile(stmt.initializer);
+		if (stmt.cell)
+			return fold(SET_CELL, DEFINE_CELL, value);
+		return fold(DEFINE, value);
+	}
+	
+	@Override
+	public MethodHandle visitBlock(Stmt.Block stmt) {
+		if (!stmt.scoped)
+			return sequence(stmt.statements);
+		return MethodHandles.filterArguments(sequence(stmt.statements), 0,
+				MethodHandles.insertArguments(ENTER, 0, stmt.slots));
+	}
+	
+	@Override
+	public MethodHandle visitIf(Stmt.If stmt) {
+		MethodHandle elseBranch = stmt.elseBranch == null ?
+				value(NORMAL) : compile(stmt.elseBranch);
+		return MethodHandles.guardWithTest(test(stmt.condition),
+				compile(stmt.thenBranch), elseBranch);
+	}
+	
+	@Override
+	public MethodHandle visitWhile(Stmt.While stmt) {
+		return MethodHandles.insertArguments(LOOP, 0, test(stmt.condition),
+				compile(stmt.body));
+	}
+	
+	@Override
+	public MethodHandle visitReturn(Stmt.Return stmt) {
+		if (stmt.tailCall) {
+			Expr.Call call = (Expr.Call) stmt.value;
+			MethodHandle[] operands = new MethodHandle[call.arguments.size() + 1];
+			operands[0] = compile(call.callee);
+			for (int i = 1; i < operands.length; i++) {
+				operands[i] = compile(call.arguments.get(i - 1));
+			}
+			return fold(MethodHandles.insertArguments(TAIL_CALL, 0, interpreter, call)
+					.asCollector(Object[].class, operands.length - 1), operands);
+		}
+		if (stmt.value == null)
+			return value(null);
+		return compile(stmt.value);
+	}
+	
+	@Override
+	public MethodHandle visitFunction(Stmt.Function stmt) {
+		if (stmt.cell)
+			return fold(SET_CELL, DEFINE_CELL, FUNCTION.bindTo(stmt));
+		return DEFINE_FUNCTION.bindTo(stmt);
+	}
+	
+	@Override
+	public MethodHandle visitModule(Stmt.Module stmt) {
+		throw new Unsupported();
+	}
+	
+	@Override
+	public MethodHandle visitMap(Stmt.Map stmt) {
+		throw new Unsupported();
+	}
+	
+	@Override
+	public MethodHandle visitMapValue(Stmt.MapValue stmt) {
+		throw new Unsupported();
+	}
+	
+	@Override
+	public MethodHandle visitImport(Stmt.Import stmt) {
+		throw new Unsupported();
+	}
+	
+	@Override
+	public MethodHandle visitFunction(Expr.Function expr) {
+		return CLOSURE.bindTo(expr);
+	}
+	
+	@Override
+	public MethodHandle visitLiteral(Expr.Literal expr) {
+		return value(expr.value);
+	}
+	
+	@Override
+	public MethodHandle visitGrouping(Expr.Grouping expr) {
+		return compile(expr.expression);
+	}
+	
+	@Override
+	public MethodHandle visitVariable(Expr.Variable expr) {
+		if (expr.depth == Expr.GLOBAL) {
+			return MethodHandles.insertArguments(GET_GLOBAL, 0,
+					interpreter.globals, expr);
+		}
+		MethodHandle slot = expr.captured ?
+				MethodHandles.insertArguments(GET_CAPTURED, 0, expr.slot) :
+				MethodHandles.insertArguments(GET_AT, 1, expr.depth, expr.slot);
+		if (expr.boxed)
+			return MethodHandles.filterReturnValue(slot, UNBOX);
+		return slot;
+	}
+	
+	@Override
+	public MethodHandle visitAssign(Expr.Assign expr) {
+		MethodHandle target;
+		if (expr.depth == Expr.GLOBAL) {
+			target = MethodHandles.insertArguments(ASSIGN_GLOBAL, 0,
+					interpreter.globals, expr);
+		} else if (expr.boxed && expr.captured) {
+			target = MethodHandles.insertArguments(ASSIGN_CAPTURED_CELL, 0,
+					expr.slot);
+		} else if (expr.boxed) {
+			target = MethodHandles.insertArguments(ASSIGN_CELL_AT, 0,
+					expr.depth, expr.slot);
+		} else {
+			target = MethodHandles.insertArguments(ASSIGN_AT, 0,
+					expr.depth, expr.slot);
+		}
+		return fold(target, compile(expr.value));
+	}
+	
+	@Override
+	public MethodHandle visitLogical(Expr.Logical expr) {
+		MethodHandle test = MethodHandles.dropArguments(TRUTHY.bindTo(interpreter), 1,
+				Environment.class);
+		MethodHandle left = MethodHandles.dropArguments(
+				MethodHandles.identity(Object.class), 1, Environment.class);
+		MethodHandle right = MethodHandles.dropArguments(compile(expr.right), 0,
+				Object.class);
+		MethodHandle target = expr.operator.type == TType.OR ?
+				MethodHandles.guardWithTest(test, left, right) :
+				MethodHandles.guardWithTest(test, right, left);
+		return fold(target, compile(expr.left));
+	}
+	
+	@Override
+	public MethodHandle visitBinary(Expr.Binary expr) {
+		MethodHandle operator = OPERATORS.get(expr.operator.type);
+		if (operator == null)
+			operator = BINARY.bindTo(interpreter);
+		else
+			operator = operator.bindTo(interpreter);
+		return fold(operator.bindTo(expr), compile(expr.left),
+				compile(expr.right));
+	}
+	
+	@Override
+	public MethodHandle visitUnary(Expr.Unary expr) {
+		return fold(MethodHandles.insertArguments(UNARY, 0, interpreter, expr),
+				compile(expr.right));
+	}
+	
+	@Override
+	public MethodHandle visitCall(Expr.Call expr) {
+		int count = expr.arguments.size();
+		MethodHandle target;
+		if (count < CALLS.length) {
+			target = MethodHandles.insertArguments(CALLS[count], 0,
+					interpreter, expr);
+		} else {
+			target = MethodHandles.insertArguments(CALL, 0, interpreter, expr)
+					.asCollector(Object[].class, count);
+		}
+		MethodHandle[] operands = new MethodHandle[count + 1];
+		operands[0] = compile(expr.callee);
+		for (int i = 0; i < count; i++) {
+			operands[i + 1] = compile(expr.arguments.get(i));
+		}
+		return fold(target, operands);
+	}
+	
+	@Override
+	public MethodHandle visitGet(Expr.Get expr) {
+		return fold(MethodHandles.insertArguments(GET_PROPERTY, 0, interpreter, expr),
+				compile(expr.object));
+	}
+	
+	@Override
+	public MethodHandle visitSet(Expr.Set expr) {
+		return fold(MethodHandles.insertArguments(SET_PROPERTY, 0, interpreter, expr),
+				compile(expr.object), compile(expr.value));
+	}
+	
+	@Override
+	public MethodHandle visitArray(Expr.Array expr) {
+		MethodHandle[] elements = new MethodHandle[expr.elements.size()];
+		for (int i = 0; i < elements.length; i++) {
+			elements[i] = compile(expr.elements.get(i));
+		}
+		return fold(ARRAY.asCollector(Object[].class, elements.length), elements);
+	}
+	
+	// Combinators
+	
+	private MethodHandle compile(Expr expr) {
+		return expr.accept(this);
+	}
+	
+	private MethodHandle compile(Stmt stmt) {
+		return stmt.accept(this);
+	}
+	
+	// Runs the statements in order until one of them doesn't complete normally
+	private MethodHandle sequence(List<Stmt> statements) {
+		if (statements.isEmpty())
+			return value(NORMAL);
+		MethodHandle rest = compile(statements.get(statements.size() - 1));
+		for (int i = statements.size() - 2; i >= 0; i--) {
+			MethodHandle next = MethodHandles.guardWithTest(
+					MethodHandles.dropArguments(IS_NORMAL, 1, Environment.class),
+					MethodHandles.dropArguments(rest, 0, Object.class),
+					MethodHandles.dropArguments(MethodHandles.identity(Object.class), 1,
+							Environment.class));
+			rest = fold(next, compile(statements.get(i)));
+		}
+		return rest;
+	}
+	
+	// Feeds the operands, evaluated left to right against the frame, to the
+	// leading parameters of target and returns a (Environment) handle
+	private static MethodHandle fold(MethodHandle target, MethodHandle... operands) {
+		if (target.type().parameterCount() == operands.length)
+			target = MethodHandles.dropArguments(target, operands.length, Environment.class);
+		for (int i = operands.length - 1; i >= 0; i--) {
+			target = MethodHandles.foldArguments(target, i, operands[i]);
+		}
+		return target;
+	}
+	
+	private MethodHandle test(Expr condition) {
+		return MethodHandles.filterReturnValue(compile(condition),
+				TRUTHY.bindTo(interpreter));
+	}
+	
+	private static MethodHandle value(Object value) {
+		return MethodHandles.dropArguments(constant(value), 0, Environment.class);
+	}
+	
+	private static MethodHandle constant(Object value) {
+		return MethodHandles.constant(Object.class, value);
+	}
+	
+	// Runtime helpers
+	
+	private static Object getGlobal(Environment globals, Expr.Variable site,
+			Environment environment) {
+		return globals.get(site);
+	}
+	
+	private static Object assignAt(int depth, int slot, Object value,
+			Environment environment) {
+		environment.assignAt(depth, slot, value);
+		return value;
+	}
+	
+	private static Object assignGlobal(Environment globals, Expr.Assign site,
+			Object value, Environment environment) {
+		globals.assign(site, value);
+		return value;
+	}
+	
+	private static Object define(Object value, Environment environment) {
+		environment.define(value);
+		return NORMAL;
+	}
+	
+	private static Cell defineCell(Environment environment) {
+		Cell cell = new Cell();
+		environment.define(cell);
+		return cell;
+	}
+	
+	private static Object setCell(Cell cell, Object value, Environment environment) {
+		cell.value = value;
+		return NORMAL;
+	}
+	
+	private static Object unbox(Object cell) {
+		return ((Cell) cell).value;
+	}
+	
+	private static Object getCaptured(int index, Environment environment) {
+		return environment.captures[index];
+	}
+	
+	private static Object assignCellAt(int depth, int slot, Object value,
+			Environment environment) {
+		((Cell) environment.getAt(depth, slot)).value = value;
+		return value;
+	}
+	
+	private static Object assignCapturedCell(int index, Object value,
+			Environment environment) {
+		((Cell) environment.captures[index]).value = value;
+		return value;
+	}
+	
+	private static Object defineFunction(Stmt.Function stmt,
+			Environment environment) {
+		environment.define(new Function(stmt.name.lexeme, stmt.expr, environment));
+		return NORMAL;
+	}
+	
+	private static Object function(Stmt.Function stmt, Environment environment) {
+		return new Function(stmt.name.lexeme, stmt.expr, environment);
+	}
+	
+	private static Object closure(Expr.Function expr, Environment environment) {
+		return new Function(null, expr, environment);
+	}
+	
+	private static Environment enter(int slots, Environment environment) {
+		return new Environment(environment, slots);
+	}
+	
+	private static Object print(Object value) {
+		System.out.println(Interpreter.stringify(value));
+		return NORMAL;
+	}
+	
+	private static boolean isNormal(Object completion) {
+		return completion == NORMAL;
+	}
+	
+	// The handles are bound into the loop, so once the tree is customized
+	// they are constants and the JVM can inline them into this loop
+	private static Object loop(MethodHandle condition, MethodHandle body,
+			Environment environment) throws Throwable {
+		while ((boolean)condition.invokeExact(environment)) {
+			Object completion = (Object)body.invokeExact(environment);
+			if (completion != NORMAL)
+				return completion;
+		}
+		return NORMAL;
+	}
+	
+	private static Object array(Object[] elements) {
+		return new Array(new ArrayList<>(Arrays.asList(elements)));
+	}
+	
+	private static Object call(Interpreter interpreter, Expr.Call expr,
+			Object callee, Object[] arguments) {
+		return interpreter.callable(expr, callee, arguments.length)
+				.call(interpreter, new ArrayList<>(Arrays.asList(arguments)));
+	}
+	
+	private static Object tailCall(Interpreter interpreter, Expr.Call expr,
+			Object callee, Object[] arguments) {
+		if (callee != interpreter.running)
+			return call(interpreter, expr, callee, arguments);
+		interpreter.callable(expr, callee, arguments.length);
+		interpreter.tailArguments = arguments;
+		return Function.TAIL_CALL;
+	}
+	
+	private static Object call0(Interpreter interpreter, Expr.Call expr,
+			Object callee) {
+		return interpreter.callable(expr, callee, 0).call0(interpreter);
+	}
+	
+	private static Object call1(Interpreter interpreter, Expr.Call expr,
+			Object callee, Object a) {
+		return interpreter.callable(expr, callee, 1).call1(interpreter, a);
+	}
+	
+	private static Object call2(Interpreter interpreter, Expr.Call expr,
+			Object callee, Object a, Object b) {
+		return interpreter.callable(expr, callee, 2).call2(interpreter, a, b);
+	}
+	
+	private static Object call3(Interpreter interpreter, Expr.Call expr,
+			Object callee, Object a, Object b, Object c) {
+		return interpreter.callable(expr, callee, 3).call3(interpreter, a, b, c);
+	}
+	
+	private static Object call4(Interpreter interpreter, Expr.Call expr,
+			Object callee, Object a, Object b, Object c, Object d) {
+		return interpreter.callable(expr, callee, 4).call4(interpreter, a, b, c, d);
+	}
+	
+	// Numeric operators take the unboxed path when both sides are numbers
+	// and leave everything else, errors included, to the interpreter
+	
+	private static Object add(Interpreter interpreter, Expr.Binary expr,
+			Object left, Object right) {
+		if (left instanceof Long && right instanceof Long)
+			return Numbers.add((long)left, (long)right);
+		if (left instanceof Double && right instanceof Double)
+			return (double)left + (double)right;
+		return interpreter.binary(expr, left, right);
+	}
+	
+	private static Object subtract(Interpreter interpreter, Expr.Binary expr,
+			Object left, Object right) {
+		if (left instanceof Long && right instanceof Long)
+			return Numbers.subtract((long)left, (long)right);
+		if (left instanceof Double && right instanceof Double)
+			return (double)left - (double)right;
+		return interpreter.binary(expr, left, right);
+	}
+	
+	private static Object multiply(Interpreter interpreter, Expr.Binary expr,
+			Object left, Object right) {
+		if (left instanceof Long && right instanceof Long)
+			return Numbers.multiply((long)left, (long)right);
+		if (left instanceof Double && right instanceof Double)
+			return (double)left * (double)right;
+		return interpreter.binary(expr, left, right);
+	}
+	
+	private static Object divide(Interpreter interpreter, Expr.Binary expr,
+			Object left, Object right) {
+		if (left instanceof Long && right instanceof Long)
+			return Numbers.divide(left, right);
+		if (left instanceof Double && right instanceof Double)
+			return (double)left / (double)right;
+		return interpreter.binary(expr, left, right);
+	}
+	
+	private static Object greater(Interpreter interpreter, Expr.Binary expr,
+			Object left, Object right) {
+		if (left instanceof Long && right instanceof Long)
+			return (long)left > (long)right;
+		if (left instanceof Double && right instanceof Double)
+			return (double)left > (double)right;
+		return interpreter.binary(expr, left, right);
+	}
+	
+	private static Object greaterEqual(Interpreter interpreter, Expr.Binary expr,
+			Object left, Object right) {
+		if (left instanceof Long && right instanceof Long)
+			return (long)left >= (long)right;
+		if (left instanceof Double && right instanceof Double)
+			return (double)left >= (double)right;
+		return interpreter.binary(expr, left, right);
+	}
+	
+	private static Object less(Interpreter interpreter, Expr.Binary expr,
+			Object left, Object right) {
+		if (left instanceof Long && right instanceof Long)
+			return (long)left < (long)right;
+		if (left instanceof Double && right instanceof Double)
+			return (double)left < (double)right;
+		return interpreter.binary(expr, left, right);
+	}
+	
+	private static Object lessEqual(Interpreter interpreter, Expr.Binary expr,
+			Object left, Object right) {
+		if (left instanceof Long && right instanceof Long)
+			return (long)left <= (long)right;
+		if (left instanceof Double && right instanceof Double)
+			return (double)left <= (double)right;
+		return interpreter.binary(expr, left, right);
+	}
+}
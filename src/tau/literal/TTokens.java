@@ -0,0 +1,82 @@
+package tau.literal;
+
+import java.util.*;
+import tau.scanner.Source;
+
+// The tokens of one source as parallel arrays, a token being an index into
+// them. The Parser only makes a TToken for the tokens it keeps in the tree.
+public class TTokens {
+	private static final TType[] TYPES = TType.values();
+	private static final int IDENTIFIER = TType.IDENTIFIER.ordinal();
+	
+	public final Source source;
+	private int[] types;
+	private int[] starts;
+	private int[] lengths;
+	private int[] lines;
+	// Side table of the values of number and string tokens, and of the
+	// interned names of identifiers
+	private Object[] literals;
+	private int size = 0;
+	
+	public TTokens(Source source, int length) {
+		this.source = source;
+		// Roughly one token per few characters of source
+		int capacity = Math.max(16, length / 4);
+		types = new int[capacity];
+		starts = new int[capacity];
+		lengths = new int[capacity];
+		lines = new int[capacity];
+		literals = new Object[capacity];
+	}
+	
+	public void add(TType type, int start, int length, int line,
+			Object literal) {
+		if (size == types.length) {
+			int capacity = size * 2;
+			types = Arrays.copyOf(types, capacity);
+			starts = Arrays.copyOf(starts, capacity);
+			lengths = Arrays.copyOf(lengths, capacity);
+			lines = Arrays.copyOf(lines, capacity);
+			literals = Arrays.copyOf(literals, capacity);
+		}
+		types[size] = type.ordinal();
+		starts[size] = start;
+		lengths[size] = length;
+		lines[size] = line;
+		literals[size] = literal;
+		size++;
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	public TType type(int token) {
+		return TYPES[types[token]];
+	}
+	
+	public int line(int token) {
+		return lines[token];
+	}
+	
+	public Object literal(int token) {
+		if (types[token] == IDENTIFIER)
+			return null;
+		return literals[token];
+	}
+	
+	public String lexeme(int token) {
+		if (types[token] == IDENTIFIER)
+			return (String) literals[token];
+		return source.substring(starts[token], starts[token] + lengths[token]);
+	}
+	
+	public TToken token(int token) {
+		if (types[token] == IDENTIFIER)
+			return new TToken(TType.IDENTIFIER, (String) literals[token],
+					null, lines[token]);
+		return new TToken(type(token), lexeme(token), literals[token],
+				lines[token]);
+	}
+}
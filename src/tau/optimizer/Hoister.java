@@ -0,0 +1,271 @@
+package tau.optimizer;
+
+import java.util.*;
+import tau.ast.*;
+
+// Moves arithmetic that can't change between iterations out of while
+// loops, into lets computed once before the loop. A name is invariant
+// when nothing in the loop assigns it and, if the loop can run other code,
+// nothing anywhere does. Only parts of the condition that run before
+// anything that can fail or have an effect are moved, so a loop still
+// fails where and when it did. The same goes for the start of the body,
+// whose lets go behind a copy of the condition so they only run if the
+// loop does.
+public class Hoister extends Rewriter {
+	// Set while the condition or body so far has only read names
+	private boolean clean;
+	// What the body declares, which the loop can't hoist past
+	private Set<String> shadowed = Collections.emptySet();
+	
+	public Hoister(boolean globals) {
+		super(globals);
+	}
+	
+	public void hoist(List<Stmt> statements) {
+		rewrite(statements);
+	}
+	
+	@Override
+	public Stmt visitWhile(Stmt.While stmt) {
+		List<Stmt> before = hoisted;
+		Stmt.While loop = (Stmt.While) super.visitWhile(stmt);
+		Scan inside = new Scan(Collections.singletonList(loop));
+		clean = true;
+		Expr condition = hoist(loop.condition, inside, before);
+		// Running the condition once more up front can't be told apart when
+		// it can't call out or change anything, and leaves the start of the
+		// body clean again
+		Expr guard = repeat(condition);
+		List<Stmt> guarded = new ArrayList<>();
+		Stmt body = loop.body;
+		if (guard != null) {
+			clean = true;
+			shadowed = declarations(body);
+			body = hoistBody(body, inside, guarded);
+			shadowed = Collections.emptySet();
+		}
+		if (condition != loop.condition || body != loop.body)
+			loop = new Stmt.While(condition, body);
+		if (guarded.isEmpty())
+			return loop;
+		guarded.add(loop);
+		return new Stmt.If(guard, new Stmt.Block(guarded), null);
+	}
+	
+	// Only the statements the body starts with run on every pass, and only
+	// until one of them can fail or have an effect
+	private Stmt hoistBody(Stmt body, Scan loop, List<Stmt> before) {
+		if (!(body instanceof Stmt.Block))
+			return hoist(body, loop, before);
+		List<Stmt> statements = ((Stmt.Block) body).statements;
+		for (int i = 0; i < statements.size() && clean; i++) {
+			statements.set(i, hoist(statements.get(i), loop, before));
+		}
+		return body;
+	}
+	
+	private Stmt hoist(Stmt stmt, Scan loop, List<Stmt> before) {
+		if (stmt instanceof Stmt.Expression) {
+			Stmt.Expression expression = (Stmt.Expression) stmt;
+			Expr expr = hoist(expression.expression, loop, before);
+			if (expr == expression.expression)
+				return stmt;
+			return new Stmt.Expression(expr);
+		}
+		if (stmt instanceof Stmt.Var) {
+			Stmt.Var var = (Stmt.Var) stmt;
+			if (var.initializer == null)
+				return stmt;
+			Expr initializer = hoist(var.initializer, loop, before);
+			if (initializer == var.initializer)
+				return stmt;
+			return new Stmt.Var(var.name, initializer);
+		}
+		if (stmt instanceof Stmt.Debug) {
+			Stmt.Debug debug = (Stmt.Debug) stmt;
+			Expr expr = hoist(debug.expression, loop, before);
+			clean = false;
+			if (expr == debug.expression)
+				return stmt;
+			return new Stmt.Debug(expr);
+		}
+		clean = false;
+		return stmt;
+	}
+	
+		private Expr hoist(Expr expr, Scan loop, List<Stmt> before) {
+		if (clean && invariant(expr, loop) && computes(expr)) {
+			Stmt.Var temporary = temporary("", expr, line(expr));
+			before.add(temporary);
+			return new Expr.Variable(temporary.name);
+		}
+		if (expr instanceof Expr.Literal)
+			return expr;
+		if (expr instanceof Expr.Variable) {
+			// Reading a global fails when it's undefined, count on those the
+			// script declares being defined by the time its loops run
+			String name = ((Expr.Variable) expr).name.lexeme;
+			if (resolve(name) == GLOBAL && !shadowed.contains(name) &&
+					!scan.declarations.containsKey(name))
+				clean = false;
+			return expr;
+		}
+		if (expr instanceof Expr.Grouping) {
+			Expr.Grouping grouping = (Expr.Grouping) expr;
+			Expr expression = hoist(grouping.expression, loop, before);
+			if (expression == grouping.expression)
+				return expr;
+			return new Expr.Grouping(expression);
+		}
+		if (expr instanceof Expr.Unary) {
+			Expr.Unary unary = (Expr.Unary) expr;
+			Expr right = hoist(unary.right, loop, before);
+			clean = false;
+			if (right == unary.right)
+				return expr;
+			return new Expr.Unary(unary.operator, right);
+		}
+		if (expr instanceof Expr.Binary) {
+			Expr.Binary binary = (Expr.Binary) expr;
+			Expr left = hoist(binary.left, loop, before);
+			Expr right = hoist(binary.right, loop, before);
+			clean = false;
+			if (left == binary.left && right == binary.right)
+				return expr;
+			return new Expr.Binary(left, binary.operator, right);
+		}
+		if (expr instanceof Expr.Logical) {
+			// The right side doesn't always run
+			Expr.Logical logical = (Expr.Logical) expr;
+			Expr left = hoist(logical.left, loop, before);
+			clean = false;
+			if (left == logical.left)
+				return expr;
+			return new Expr.Logical(left, logical.operator, logical.right);
+		}
+		if (expr instanceof Expr.Assign) {
+			// The value runs before anything is assigned
+			Expr.Assign assign = (Expr.Assign) expr;
+			Expr value = hoist(assign.value, loop, before);
+			clean = false;
+			if (value == assign.value)
+				return expr;
+			return new Expr.Assign(assign.name, value);
+		}
+		clean = false;
+		return expr;
+	}
+	
+	private boolean invariant(Expr expr, Scan loop) {
+		if (expr instanceof Expr.Literal)
+			return true;
+		if (expr instanceof Expr.Variable)
+			return invariant(((Expr.Variable) expr).name.lexeme, loop);
+		if (expr instanceof Expr.Grouping)
+			return invariant(((Expr.Grouping) expr).expression, loop);
+		if (expr instanceof Expr.Unary)
+			return invariant(((Expr.Unary) expr).right, loop);
+		if (expr instanceof Expr.Binary) {
+			Expr.Binary binary = (Expr.Binary) expr;
+			return invariant(binary.left, loop) && invariant(binary.right, loop);
+		}
+		return false;
+	}
+	
+	private boolean invariant(String name, Scan loop) {
+		if (loop.assigned.contains(name) || loop.declarations.containsKey(name) ||
+				shadowed.contains(name))
+			return false;
+		if (resolve(name) != GLOBAL)
+			return !loop.calls || !scan.assigned.contains(name);
+		// A global that's only declared once, and not in the loop, holds the
+		// same value all along unless something assigns it
+		Integer declarations = scan.declarations.get(name);
+		return globals && !scan.imports && !scan.assigned.contains(name) &&
+				declarations != null && declarations == 1;
+	}
+	
+	// Whether it applies an operator to a variable, anything less is already
+	// as cheap as reading a let, or left to the Optimizer to fold
+	private boolean computes(Expr expr) {
+		if (expr instanceof Expr.Grouping)
+			return computes(((Expr.Grouping) expr).expression);
+		return (expr instanceof Expr.Unary || expr instanceof Expr.Binary) &&
+				names(expr);
+	}
+	
+	private boolean names(Expr expr) {
+		if (expr instanceof Expr.Variable)
+			return true;
+		if (expr instanceof Expr.Grouping)
+			return names(((Expr.Grouping) expr).expression);
+		if (expr instanceof Expr.Unary)
+			return names(((Expr.Unary) expr).right);
+		if (expr instanceof Expr.Binary) {
+			Expr.Binary binary = (Expr.Binary) expr;
+			return names(binary.left) || names(binary.right);
+		}
+		return false;
+	}
+	
+	// A fresh copy of a condition that only reads names and applies
+	// operators, null for anything else
+	private Expr repeat(Expr expr) {
+		if (expr instanceof Expr.Literal)
+			return expr;
+		if (expr instanceof Expr.Variable)
+			return new Expr.Variable(((Expr.Variable) expr).name);
+		if (expr instanceof Expr.Grouping) {
+			Expr expression = repeat(((Expr.Grouping) expr).expression);
+			return expression == null ? null : new Expr.Grouping(expression);
+		}
+		if (expr instanceof Expr.Unary) {
+			Expr.Unary unary = (Expr.Unary) expr;
+			Expr right = repeat(unary.right);
+			return right == null ? null : new Expr.Unary(unary.operator, right);
+		}
+		if (expr instanceof Expr.Binary) {
+			Expr.Binary binary = (Expr.Binary) expr;
+			Expr left = repeat(binary.left);
+			Expr right = repeat(binary.right);
+			if (left == null || right == null)
+				return null;
+			return new Expr.Binary(left, binary.operator, right);
+		}
+		if (expr instanceof Expr.Logical) {
+			Expr.Logical logical = (Expr.Logical) expr;
+			Expr left = repeat(logical.left);
+			Expr right = repeat(logical.right);
+			if (left == null || right == null)
+				return null;
+			return new Expr.Logical(left, logical.operator, right);
+		}
+		return null;
+	}
+	
+	// The names a loop body declares for itself
+	private Set<String> declarations(Stmt body) {
+		Set<String> names = new HashSet<>();
+		if (!(body instanceof Stmt.Block))
+			return names;
+		for (Stmt stmt : ((Stmt.Block) body).statements) {
+			if (stmt instanceof Stmt.Var)
+				names.add(((Stmt.Var) stmt).name.lexeme);
+			else if (stmt instanceof Stmt.Function)
+				names.add(((Stmt.Function) stmt).name.lexeme);
+			else if (stmt instanceof Stmt.Module)
+				names.add(((Stmt.Module) stmt).name.lexeme);
+			else if (stmt instanceof Stmt.Map)
+				names.add(((Stmt.Map) stmt).name.lexeme);
+		}
+		return names;
+	}
+	
+	private int line(Expr expr) {
+		if (expr instanceof Expr.Grouping)
+			return line(((Expr.Grouping) expr).expression);
+		if (expr instanceof Expr.Unary)
+			return ((Expr.Unary) expr).operator.line;
+		return ((Expr.Binary) expr).operator.line;
+	}
+}
@@ -0,0 +1,253 @@
+package tau.optimizer;
+
+import java.util.*;
+import tau.ast.*;
+import tau.literal.*;
+
+// Replaces calls to small functions, whose body is a single return, with
+// a copy of the returned expression. It runs before the Analyzer so that
+// the copy gets resolved where it now sits. Only callees that can't be
+// rebound are inlined: a def in a local scope that nothing assigns, or one
+// at the top level of a script that never rebinds the name and imports no
+// code that could.
+public class Inliner extends Rewriter {
+	// Largest returned expression copied into callers, in nodes
+	private static final int BUDGET = 12;
+	
+	private final Map<Stmt.Function, Candidate> locals =
+			new HashMap<>();
+	private final Map<String, Candidate> topLevel =
+			new HashMap<>();
+	
+	private static class Candidate {
+		final List<TToken> parameters;
+		final Expr body;
+		// What each other name in the body resolved to where it's defined
+		final Map<String, Object> free =
+				new HashMap<>();
+		// Whether the body can run other code, which might change a variable
+		// passed in before the body reads it
+		boolean calls = false;
+	
+		Candidate(List<TToken> parameters, Expr body) {
+			this.parameters = parameters;
+			this.body = body;
+		}
+	}
+	
+	public Inliner(boolean globals) {
+		super(globals);
+	}
+	
+	public void inline(List<Stmt> statements) {
+		rewrite(statements);
+	}
+	
+	@Override
+	public Stmt visitFunction(Stmt.Function stmt) {
+		boolean topLevel = listed && !local();
+		super.visitFunction(stmt);
+		Candidate candidate = candidate(stmt);
+		if (candidate == null)
+			return stmt;
+		if (local()) {
+			locals.put(stmt, candidate);
+		} else if (topLevel && globals && !scan.imports &&
+				scan.declarations.get(stmt.name.lexeme) == 1) {
+			this.topLevel.put(stmt.name.lexeme, candidate);
+		}
+		return stmt;
+	}
+	
+	@Override
+	Expr call(Expr.Call expr, List<Stmt> before) {
+		Expr callee = rewrite(expr.callee);
+		rewriteArguments(expr.arguments);
+		Candidate candidate = callee instanceof Expr.Variable ?
+				resolveCandidate(((Expr.Variable) callee).name) : null;
+		if (candidate == null ||
+				candidate.parameters.size() != expr.arguments.size() ||
+				!hygienic(candidate)) {
+			if (callee == expr.callee)
+				return expr;
+			return new Expr.Call(callee, expr.paren, expr.arguments);
+		}
+		Map<String, Expr> arguments = new HashMap<>();
+		boolean simple = true;
+		for (int i = 0; i < expr.arguments.size(); i++) {
+			Expr argument = expr.arguments.get(i);
+			arguments.put(candidate.parameters.get(i).lexeme, argument);
+			simple = simple && simple(argument, candidate);
+		}
+		if (!simple && before == null) {
+			if (callee == expr.callee)
+				return expr;
+			return new Expr.Call(callee, expr.paren, expr.arguments);
+		}
+		if (!simple) {
+			// Every argument runs once and in order, as in the call
+			for (int i = 0; i < expr.arguments.size(); i++) {
+				Expr argument = expr.arguments.get(i);
+				if (argument instanceof Expr.Literal)
+					continue;
+				String parameter = candidate.parameters.get(i).lexeme;
+				Stmt.Var temporary = temporary(parameter, argument,
+						expr.paren.line);
+				before.add(temporary);
+				arguments.put(parameter, new Expr.Variable(temporary.name));
+			}
+		}
+		return copy(candidate.body, arguments);
+	}
+	
+	private Candidate candidate(Stmt.Function stmt) {
+		List<Stmt> body = stmt.expr.body;
+		if (body.size() != 1 || !(body.get(0) instanceof Stmt.Return) ||
+				scan.assigned.contains(stmt.name.lexeme))
+			return null;
+		Expr value = ((Stmt.Return) body.get(0)).value;
+		if (value == null)
+			return null;
+		Candidate candidate = new Candidate(stmt.expr.parameters, value);
+		Set<String> parameters = new HashSet<>();
+		for (TToken parameter : stmt.expr.parameters) {
+			parameters.add(parameter.lexeme);
+		}
+		int size = measure(value, candidate, parameters);
+		// Naming itself would make it recursive
+		if (size < 0 || size > BUDGET ||
+				candidate.free.containsKey(stmt.name.lexeme))
+			return null;
+		return candidate;
+	}
+	
+	// Nodes in the expression, or -1 when it holds anything that can't be
+	// copied into a caller as it is
+	private int measure(Expr expr, Candidate candidate, Set<String> parameters) {
+		if (expr instanceof Expr.Literal)
+			return 1;
+		if (expr instanceof Expr.Variable) {
+			String name = ((Expr.Variable) expr).name.lexeme;
+			if (!parameters.contains(name))
+				candidate.free.put(name, resolve(name));
+			return 1;
+		}
+		if (expr instanceof Expr.Grouping)
+			return add(1, measure(((Expr.Grouping) expr).expression,
+					candidate, parameters));
+		if (expr instanceof Expr.Unary)
+			return add(1, measure(((Expr.Unary) expr).right,
+					candidate, parameters));
+		if (expr instanceof Expr.Binary) {
+			Expr.Binary binary = (Expr.Binary) expr;
+			return add(measure(binary.left, candidate, parameters),
+					measure(binary.right, candidate, parameters) + 1);
+		}
+		if (expr instanceof Expr.Logical) {
+			Expr.Logical logical = (Expr.Logical) expr;
+			return add(measure(logical.left, candidate, parameters),
+					measure(logical.right, candidate, parameters) + 1);
+		}
+		if (expr instanceof Expr.Get) {
+			// Reading a map value runs it
+			candidate.calls = true;
+			return add(1, measure(((Expr.Get) expr).object,
+					candidate, parameters));
+		}
+		if (expr instanceof Expr.Call) {
+			Expr.Call call = (Expr.Call) expr;
+			candidate.calls = true;
+			int size = measure(call.callee, candidate, parameters) + 1;
+			for (Expr argument : call.arguments) {
+				size = add(size, measure(argument, candidate, parameters));
+			}
+			return size;
+		}
+		if (expr instanceof Expr.Array) {
+			int size = 1;
+			for (Expr element : ((Expr.Array) expr).elements) {
+				size = add(size, measure(element, candidate, parameters));
+			}
+			return size;
+		}
+		return -1;
+	}
+	
+	private int add(int a, int b) {
+		return a < 0 || b < 0 ? -1 : a + b;
+	}
+	
+	// A fresh copy of a candidate's body with its parameters replaced
+	private Expr copy(Expr expr, Map<String, Expr> arguments) {
+		if (expr instanceof Expr.Literal)
+			return expr;
+		if (expr instanceof Expr.Variable) {
+			TToken name = ((Expr.Variable) expr).name;
+			Expr argument = arguments.get(name.lexeme);
+			if (argument == null)
+				return new Expr.Variable(name);
+			return copy(argument, Collections.emptyMap());
+		}
+		if (expr instanceof Expr.Grouping)
+			return new Expr.Grouping(copy(((Expr.Grouping) expr).expression,
+					arguments));
+		if (expr instanceof Expr.Unary) {
+			Expr.Unary unary = (Expr.Unary) expr;
+			return new Expr.Unary(unary.operator, copy(unary.right, arguments));
+		}
+		if (expr instanceof Expr.Binary) {
+			Expr.Binary binary = (Expr.Binary) expr;
+			return new Expr.Binary(copy(binary.left, arguments),
+					binary.operator, copy(binary.right, arguments));
+		}
+		if (expr instanceof Expr.Logical) {
+			Expr.Logical logical = (Expr.Logical) expr;
+			return new Expr.Logical(copy(logical.left, arguments),
+					logical.operator, copy(logical.right, arguments));
+		}
+		if (expr instanceof Expr.Get) {
+			Expr.Get get = (Expr.Get) expr;
+			return new Expr.Get(copy(get.object, arguments), get.name);
+		}
+		if (expr instanceof Expr.Call) {
+			Expr.Call call = (Expr.Call) expr;
+			List<Expr> copies = new ArrayList<>();
+			for (Expr argument : call.arguments) {
+				copies.add(copy(argument, arguments));
+			}
+			return new Expr.Call(copy(call.callee, arguments), call.paren,
+					copies);
+		}
+		Expr.Array array = (Expr.Array) expr;
+		List<Expr> copies = new ArrayList<>();
+		for (Expr element : array.elements) {
+			copies.add(copy(element, arguments));
+		}
+		return new Expr.Array(array.brack, copies);
+	}
+	
+	// Arguments the copy can read in place of the parameter: they can't fail,
+	// can't change anything and read the same anywhere in the body
+	private boolean simple(Expr argument, Candidate candidate) {
+		if (argument instanceof Expr.Literal)
+			return true;
+		return argument instanceof Expr.Variable && !candidate.calls &&
+				resolve(((Expr.Variable) argument).name.lexeme) != GLOBAL;
+	}
+	
+	// Every other name in the body must mean here what it meant there
+	private boolean hygienic(Candidate candidate) {
+		for (Map.Entry<String, Object> entry : candidate.free.entrySet()) {
+			if (resolve(entry.getKey()) != entry.getValue())
+				return false;
+		}
+		return true;
+	}
+	
+	private Candidate resolveCandidate(TToken name) {
+		Object declaration = resolve(name.lexeme);
+		if (declaration == GLOBAL)
+			return topLevel.get(name.lexeme);
+		return locals.get(declaration);
+	}
+}
@@ -0,0 +1,356 @@
+package tau.optimizer;
+
+import java.util.*;
+import tau.ast.*;
+import tau.literal.*;
+import tau.runtime.Numbers;
+import static tau.literal.TType.*;
+
+// Rewrites an analyzed script before it runs: folds operators over
+// literals, replaces reads of locals that keep their literal initializer
+// with the literal, and drops if branches that can never run. Anything that
+// would fail at runtime is left alone so it still fails there, at its line.
+public class Optimizer implements Expr.Visitor<Expr>,
+Stmt.Visitor<Stmt> {
+	// Local names in scope, mapped to their literal value or null, so that
+	// inner declarations shadow outer constants. Empty at the top level
+	// since any code, imports included, can change a global.
+	private final Deque<Map<String, Expr.Literal>> scopes =
+			new ArrayDeque<>();
+	
+	public void optimize(List<Stmt> statements) {
+		for (int i = 0; i < statements.size(); i++) {
+			statements.set(i, optimize(statements.get(i)));
+		}
+	}
+	
+	@Override
+	public Stmt visitExpression(Stmt.Expression stmt) {
+		Expr expression = optimize(stmt.expression);
+		if (expression == stmt.expression)
+			return stmt;
+		return new Stmt.Expression(expression);
+	}
+	
+	@Override
+	public Stmt visitDebug(Stmt.Debug stmt) {
+		Expr expression = optimize(stmt.expression);
+		if (expression == stmt.expression)
+			return stmt;
+		return new Stmt.Debug(expression);
+	}
+	
+	@Override
+	public Stmt visitVar(Stmt.Var stmt) {
+		// Closures in the initializer already see this variable
+		declare(stmt.name.lexeme);
+		Expr initializer = stmt.initializer == null ?
+				null : optimize(stmt.initializer);
+		if (!scopes.isEmpty()) {
+			scopes.peek().put(stmt.name.lexeme, stmt.constant &&
+					initializer instanceof Expr.Literal ?
+							(Expr.Literal) initializer : null);
+		}
+		if (initializer == stmt.initializer)
+			return stmt;
+		Stmt.Var var = new Stmt.Var(stmt.name, initializer);
+		var.cell = stmt.cell;
+		var.constant = stmt.constant;
+		return var;
+	}
+	
+	@Override
+	public Stmt visitBlock(Stmt.Block stmt) {
+		if (!stmt.scoped) {
+			optimize(stmt.statements);
+			return stmt;
+		}
+		scopes.push(new HashMap<>());
+		optimize(stmt.statements);
+		scopes.pop();
+		return stmt;
+	}
+	
+	@Override
+	public Stmt visitIf(Stmt.If stmt) {
+		Expr condition = optimize(stmt.condition);
+		if (condition instanceof Expr.Literal) {
+			if (truthy(((Expr.Literal) condition).value))
+				return optimize(stmt.thenBranch);
+			if (stmt.elseBranch != null)
+				return optimize(stmt.elseBranch);
+			Stmt.Block empty = new Stmt.Block(new ArrayList<>());
+			empty.scoped = false;
+			return empty;
+		}
+		Stmt thenBranch = optimize(stmt.thenBranch);
+		Stmt elseBranch = stmt.elseBranch == null ?
+				null : optimize(stmt.elseBranch);
+		if (condition == stmt.condition && thenBranch == stmt.thenBranch &&
+				elseBranch == stmt.elseBranch)
+			return stmt;
+		return new Stmt.If(condition, thenBranch, elseBranch);
+	}
+	
+	@Override
+	public Stmt visitWhile(Stmt.While stmt) {
+		Expr condition = optimize(stmt.condition);
+		Stmt body = optimize(stmt.body);
+		if (condition == stmt.condition && body == stmt.body)
+			return stmt;
+		return new Stmt.While(condition, body);
+	}
+	
+	@Override
+	public Stmt visitFunction(Stmt.Function stmt) {
+		declare(stmt.name.lexeme);
+		optimize(stmt.expr);
+		return stmt;
+	}
+	
+	@Override
+	public Stmt visitReturn(Stmt.Return stmt) {
+		Expr value = stmt.value == null ? null : optimize(stmt.value);
+		if (value == stmt.value)
+			return stmt;
+		Stmt.Return result = new Stmt.Return(stmt.keyword, value);
+		result.tailCall = stmt.tailCall;
+		return result;
+	}
+	
+	@Override
+	public Stmt visitModule(Stmt.Module stmt) {
+		declare(stmt.name.lexeme);
+		for (Stmt.Function method : stmt.methods) {
+			optimize(method.expr);
+		}
+		return stmt;
+	}
+	
+	@Override
+	public Stmt visitMap(Stmt.Map stmt) {
+		declare(stmt.name.lexeme);
+		for (int i = 0; i < stmt.values.size(); i++) {
+			stmt.values.set(i, (Stmt.MapValue) optimize(stmt.values.get(i)));
+		}
+		return stmt;
+	}
+	
+	@Override
+	public Stmt visitMapValue(Stmt.MapValue stmt) {
+		Expr value = optimize(stmt.value);
+		if (value == stmt.value)
+			return stmt;
+		return new Stmt.MapValue(stmt.name, value);
+	}
+	
+	@Override
+	public Stmt visitImport(Stmt.Import stmt) {
+		return stmt;
+	}
+	
+	@Override
+	public Expr visitBinary(Expr.Binary expr) {
+		Expr left = optimize(expr.left);
+		Expr right = optimize(expr.right);
+		if (left instanceof Expr.Literal && right instanceof Expr.Literal) {
+			Expr folded = fold(expr, ((Expr.Literal) left).value,
+					((Expr.Literal) right).value);
+			if (folded != null)
+				return folded;
+		}
+		if (left == expr.left && right == expr.right)
+			return expr;
+		return typed(new Expr.Binary(left, expr.operator, right), expr);
+	}
+	
+	@Override
+	public Expr visitGrouping(Expr.Grouping expr) {
+		Expr expression = optimize(expr.expression);
+		if (expression instanceof Expr.Literal)
+			return expression;
+		if (expression == expr.expression)
+			return expr;
+		return typed(new Expr.Grouping(expression), expr);
+	}
+	
+	@Override
+	public Expr visitLiteral(Expr.Literal expr) {
+		return expr;
+	}
+	
+	@Override
+	public Expr visitUnary(Expr.Unary expr) {
+		Expr right = optimize(expr.right);
+		if (right instanceof Expr.Literal) {
+			Object value = ((Expr.Literal) right).value;
+			if (expr.operator.type == BANG)
+				return new Expr.Literal(!truthy(value));
+			if (expr.operator.type == MINUS && Numbers.isNumber(value))
+				return new Expr.Literal(Numbers.negate(value));
+		}
+		if (right == expr.right)
+			return expr;
+		return typed(new Expr.Unary(expr.operator, right), expr);
+	}
+	
+	@Override
+	public Expr visitVariable(Expr.Variable expr) {
+		if (expr.depth == Expr.GLOBAL)
+			return expr;
+		for (Map<String, Expr.Literal> scope : scopes) {
+			if (scope.containsKey(expr.name.lexeme)) {
+				Expr.Literal value = scope.get(expr.name.lexeme);
+				return value == null ? expr : value;
+			}
+		}
+		return expr;
+	}
+	
+	@Override
+	public Expr visitAssign(Expr.Assign expr) {
+		Expr value = optimize(expr.value);
+		if (value == expr.value)
+			return expr;
+		Expr.Assign assign = new Expr.Assign(expr.name, value);
+		assign.depth = expr.depth;
+		assign.slot = expr.slot;
+		assign.captured = expr.captured;
+		assign.boxed = expr.boxed;
+		return typed(assign, expr);
+	}
+	
+	@Override
+	public Expr visitLogical(Expr.Logical expr) {
+		Expr left = optimize(expr.left);
+		Expr right = optimize(expr.right);
+		if (left instanceof Expr.Literal) {
+			// The result is the left operand when it decides, else the right
+			boolean truthy = truthy(((Expr.Literal) left).value);
+			return truthy == (expr.operator.type == OR) ? left : right;
+		}
+		if (left == expr.left && right == expr.right)
+			return expr;
+		return typed(new Expr.Logical(left, expr.operator, right), expr);
+	}
+	
+	@Override
+	public Expr visitCall(Expr.Call expr) {
+		Expr callee = optimize(expr.callee);
+		optimizeAll(expr.arguments);
+		if (callee == expr.callee)
+			return expr;
+		return typed(new Expr.Call(callee, expr.paren, expr.arguments), expr);
+	}
+	
+	@Override
+	public Expr visitGet(Expr.Get expr) {
+		Expr object = optimize(expr.object);
+		if (object == expr.object)
+			return expr;
+		return typed(new Expr.Get(object, expr.name), expr);
+	}
+	
+	@Override
+	public Expr visitSet(Expr.Set expr) {
+		Expr value = optimize(expr.value);
+		Expr object = optimize(expr.object);
+		if (object == expr.object && value == expr.value)
+			return expr;
+		return typed(new Expr.Set(object, expr.name, value), expr);
+	}
+	
+	@Override
+	public Expr visitArray(Expr.Array expr) {
+		optimizeAll(expr.elements);
+		return expr;
+	}
+	
+	@Override
+	public Expr visitFunction(Expr.Function expr) {
+		optimize(expr);
+		return expr;
+	}
+	
+	// Helpers
+	
+	private Stmt optimize(Stmt stmt) {
+		return stmt.accept(this);
+	}
+	
+	private Expr optimize(Expr expr) {
+		return expr.accept(this);
+	}
+	
+	private void optimizeAll(List<Expr> exprs) {
+		for (int i = 0; i < exprs.size(); i++) {
+			exprs.set(i, optimize(exprs.get(i)));
+		}
+	}
+	
+	// A rebuilt node evaluates to the same as the one it replaces
+	private Expr typed(Expr rebuilt, Expr expr) {
+		rebuilt.type = expr.type;
+		return rebuilt;
+	}
+	
+	// Rewritten in place, the node carries what the Analyzer found for it
+	private void optimize(Expr.Function function) {
+		Map<String, Expr.Literal> scope = new HashMap<>();
+		for (TToken parameter : function.parameters) {
+			scope.put(parameter.lexeme, null);
+		}
+		scopes.push(scope);
+		optimize(function.body);
+		scopes.pop();
+	}
+	
+	private void declare(String name) {
+		if (!scopes.isEmpty())
+			scopes.peek().put(name, null);
+	}
+	
+	// Same results as Interpreter.binary, or null for anything that would
+	// throw or isn't plain data
+	private Expr fold(Expr.Binary expr, Object left, Object right) {
+		switch(expr.operator.type) {
+		case BANG_EQUAL:
+			return new Expr.Literal(!isEqual(left, right));
+		case EQUAL_EQUAL:
+			return new Expr.Literal(isEqual(left, right));
+		case PLUS:
+			if (left instanceof String && right instanceof String)
+				return new Expr.Literal((String) left + (String) right);
+			break;
+		default:
+			break;
+		}
+		if (!Numbers.isNumber(left) || !Numbers.isNumber(right))
+			return null;
+		switch(expr.operator.type) {
+		case GREATER: return new Expr.Literal(Numbers.greater(left, right));
+		case GREATER_EQUAL: return new Expr.Literal(Numbers.greaterEqual(left, right));
+		case LESS: return new Expr.Literal(Numbers.less(left, right));
+		case LESS_EQUAL: return new Expr.Literal(Numbers.lessEqual(left, right));
+		case PLUS: return new Expr.Literal(Numbers.add(left, right));
+		case MINUS: return new Expr.Literal(Numbers.subtract(left, right));
+		case SLASH: return new Expr.Literal(Numbers.divide(left, right));
+		case STAR: return new Expr.Literal(Numbers.multiply(left, right));
+		default: return null;
+		}
+	}
+	
+	private boolean truthy(Object object) {
+		if (object == null) return false;
+		if (object instanceof Boolean) return (boolean) object;
+		return true;
+	}
+	
+	private boolean isEqual(Object a, Object b) {
+		if (a == null && b == null) return true;
+		if (a == null) return false;
+		if (Numbers.isNumber(a) && Numbers.isNumber(b))
+			return Numbers.equal(a, b);
+		return a.equals(b);
+	}
+}
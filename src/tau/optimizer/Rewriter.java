@@ -0,0 +1,322 @@
+package tau.optimizer;
+
+import java.util.*;
+import tau.ast.*;
+import tau.literal.*;
+
+// Base of the passes that run before the Analyzer: rebuilds whatever
+// changed, tracks which names are locals, and lets a statement have lets
+// added ahead of it, so the Analyzer resolves the result as if written so.
+abstract class Rewriter implements Expr.Visitor<Expr>,
+Stmt.Visitor<Stmt> {
+	// What any name that isn't a local resolves to
+	static final Object GLOBAL = new Object();
+	
+	// Whether top-level names can be trusted to mean what this code defines,
+	// which isn't so for code that can see later input, like the prompt or
+	// an import
+	final boolean globals;
+	// Local names in scope, innermost first, mapped to what declares them
+	private final Deque<Map<String, Object>> scopes =
+			new ArrayDeque<>();
+	Scan scan;
+	// Where to put the lets the statement being rewritten needs first
+	List<Stmt> hoisted = null;
+	// Whether the statement sits in a list rather than alone in a branch
+	boolean listed = false;
+	private int temporaries = 0;
+	
+	Rewriter(boolean globals) {
+		this.globals = globals;
+	}
+	
+	void rewrite(List<Stmt> statements) {
+		scan = new Scan(statements);
+		rewriteAll(statements);
+	}
+	
+	@Override
+	public Stmt visitExpression(Stmt.Expression stmt) {
+		Expr expression = value(stmt.expression, hoisted);
+		if (expression == stmt.expression)
+			return stmt;
+		return new Stmt.Expression(expression);
+	}
+	
+	@Override
+	public Stmt visitDebug(Stmt.Debug stmt) {
+		Expr expression = value(stmt.expression, hoisted);
+		if (expression == stmt.expression)
+			return stmt;
+		return new Stmt.Debug(expression);
+	}
+	
+	@Override
+	public Stmt visitVar(Stmt.Var stmt) {
+		// A let can only go ahead of it in a local scope's list
+		List<Stmt> before = listed && local() ? hoisted : null;
+		declare(stmt.name, stmt);
+		if (stmt.initializer == null)
+			return stmt;
+		Expr initializer = value(stmt.initializer, before);
+		if (initializer == stmt.initializer)
+			return stmt;
+		return new Stmt.Var(stmt.name, initializer);
+	}
+	
+	@Override
+	public Stmt visitBlock(Stmt.Block stmt) {
+		scopes.push(new HashMap<>());
+		rewriteAll(stmt.statements);
+		scopes.pop();
+		return stmt;
+	}
+	
+	@Override
+	public Stmt visitIf(Stmt.If stmt) {
+		Expr condition = rewrite(stmt.condition);
+		Stmt thenBranch = branch(stmt.thenBranch);
+		Stmt elseBranch = stmt.elseBranch == null ?
+				null : branch(stmt.elseBranch);
+		if (condition == stmt.condition && thenBranch == stmt.thenBranch &&
+				elseBranch == stmt.elseBranch)
+			return stmt;
+		return new Stmt.If(condition, thenBranch, elseBranch);
+	}
+	
+	@Override
+	public Stmt visitWhile(Stmt.While stmt) {
+		Expr condition = rewrite(stmt.condition);
+		Stmt body = branch(stmt.body);
+		if (condition == stmt.condition && body == stmt.body)
+			return stmt;
+		return new Stmt.While(condition, body);
+	}
+	
+	@Override
+	public Stmt visitFunction(Stmt.Function stmt) {
+		declare(stmt.name, stmt);
+		function(stmt.expr);
+		return stmt;
+	}
+	
+	@Override
+	public Stmt visitReturn(Stmt.Return stmt) {
+		if (stmt.value == null)
+			return stmt;
+		Expr value = value(stmt.value, hoisted);
+		if (value == stmt.value)
+			return stmt;
+		return new Stmt.Return(stmt.keyword, value);
+	}
+	
+	@Override
+	public Stmt visitModule(Stmt.Module stmt) {
+		declare(stmt.name, stmt);
+		for (Stmt.Function method : stmt.methods) {
+			function(method.expr);
+		}
+		return stmt;
+	}
+	
+	@Override
+	public Stmt visitMap(Stmt.Map stmt) {
+		// Values run against the globals whenever they're read, leave them
+		declare(stmt.name, stmt);
+		return stmt;
+	}
+	
+	@Override
+	public Stmt visitMapValue(Stmt.MapValue stmt) {
+		return stmt;
+	}
+	
+	@Override
+	public Stmt visitImport(Stmt.Import stmt) {
+		return stmt;
+	}
+	
+	@Override
+	public Expr visitBinary(Expr.Binary expr) {
+		Expr left = rewrite(expr.left);
+		Expr right = rewrite(expr.right);
+		if (left == expr.left && right == expr.right)
+			return expr;
+		return new Expr.Binary(left, expr.operator, right);
+	}
+	
+	@Override
+	public Expr visitGrouping(Expr.Grouping expr) {
+		Expr expression = rewrite(expr.expression);
+		if (expression == expr.expression)
+			return expr;
+		return new Expr.Grouping(expression);
+	}
+	
+	@Override
+	public Expr visitLiteral(Expr.Literal expr) {
+		return expr;
+	}
+	
+	@Override
+	public Expr visitUnary(Expr.Unary expr) {
+		Expr right = rewrite(expr.right);
+		if (right == expr.right)
+			return expr;
+		return new Expr.Unary(expr.operator, right);
+	}
+	
+	@Override
+	public Expr visitVariable(Expr.Variable expr) {
+		return expr;
+	}
+	
+	@Override
+	public Expr visitAssign(Expr.Assign expr) {
+		Expr value = rewrite(expr.value);
+		if (value == expr.value)
+			return expr;
+		return new Expr.Assign(expr.name, value);
+	}
+	
+	@Override
+	public Expr visitLogical(Expr.Logical expr) {
+		Expr left = rewrite(expr.left);
+		Expr right = rewrite(expr.right);
+		if (left == expr.left && right == expr.right)
+			return expr;
+		return new Expr.Logical(left, expr.operator, right);
+	}
+	
+	@Override
+	public Expr visitCall(Expr.Call expr) {
+		return call(expr, null);
+	}
+	
+	@Override
+	public Expr visitGet(Expr.Get expr) {
+		Expr object = rewrite(expr.object);
+		if (object == expr.object)
+			return expr;
+		return new Expr.Get(object, expr.name);
+	}
+	
+	@Override
+	public Expr visitSet(Expr.Set expr) {
+		Expr object = rewrite(expr.object);
+		Expr value = rewrite(expr.value);
+		if (object == expr.object && value == expr.value)
+			return expr;
+		return new Expr.Set(object, expr.name, value);
+	}
+	
+	@Override
+	public Expr visitArray(Expr.Array expr) {
+		rewriteArguments(expr.elements);
+		return expr;
+	}
+	
+	@Override
+	public Expr visitFunction(Expr.Function expr) {
+		function(expr);
+		return expr;
+	}
+	
+	// Helpers
+	
+	Expr rewrite(Expr expr) {
+		return expr.accept(this);
+	}
+	
+	void rewriteArguments(List<Expr> exprs) {
+		for (int i = 0; i < exprs.size(); i++) {
+			exprs.set(i, rewrite(exprs.get(i)));
+		}
+	}
+	
+	private void rewriteAll(List<Stmt> statements) {
+		for (int i = 0; i < statements.size(); i++) {
+			List<Stmt> before = new ArrayList<>();
+			Stmt stmt = statement(statements.get(i), before, true);
+			if (!before.isEmpty() && !local()) {
+				// The lets would be globals, keep them in a block
+				before.add(stmt);
+				stmt = new Stmt.Block(before);
+				before = new ArrayList<>();
+			}
+			statements.set(i, stmt);
+			statements.addAll(i, before);
+			i += before.size();
+		}
+	}
+	
+	private Stmt branch(Stmt stmt) {
+		List<Stmt> before = new ArrayList<>();
+		Stmt result = statement(stmt, before, false);
+		if (before.isEmpty())
+			return result;
+		before.add(result);
+		return new Stmt.Block(before);
+	}
+	
+	private Stmt statement(Stmt stmt, List<Stmt> before, boolean listed) {
+		this.hoisted = before;
+		this.listed = listed;
+		Stmt result = stmt.accept(this);
+		this.hoisted = null;
+		this.listed = false;
+		return result;
+	}
+	
+	// The expression a statement starts by evaluating, a call there can
+	// move its arguments into lets ahead of the statement
+	private Expr value(Expr expr, List<Stmt> before) {
+		hoisted = null;
+		listed = false;
+		if (expr instanceof Expr.Call)
+			return call((Expr.Call) expr, before);
+		return rewrite(expr);
+	}
+	
+	Expr call(Expr.Call expr, List<Stmt> before) {
+		Expr callee = rewrite(expr.callee);
+		rewriteArguments(expr.arguments);
+		if (callee == expr.callee)
+			return expr;
+		return new Expr.Call(callee, expr.paren, expr.arguments);
+	}
+	
+	void function(Expr.Function function) {
+		Map<String, Object> scope = new HashMap<>();
+		for (TToken parameter : function.parameters) {
+			scope.put(parameter.lexeme, parameter);
+		}
+		scopes.push(scope);
+		rewriteAll(function.body);
+		scopes.pop();
+	}
+	
+	// A let named so that it can't clash with anything in the source
+	Stmt.Var temporary(String name, Expr value, int line) {
+		TToken token = new TToken(TType.IDENTIFIER, name + "'" + temporaries++,
+				null, line);
+		return new Stmt.Var(token, value);
+	}
+	
+	boolean local() {
+		return !scopes.isEmpty();
+	}
+	
+	Object resolve(String name) {
+		for (Map<String, Object> scope : scopes) {
+			if (scope.containsKey(name))
+				return scope.get(name);
+		}
+		return GLOBAL;
+	}
+	
+	private void declare(TToken name, Object declaration) {
+		if (!scopes.isEmpty())
+			scopes.peek().put(name.lexeme, declaration);
+	}
+}
@@ -0,0 +1,219 @@
+package tau.optimizer;
+
+import java.util.*;
+import tau.ast.*;
+import tau.literal.*;
+
+// What a script or loop does to its names, gathered up front since an
+// assignment further down can still rebind a name used above it
+class Scan implements Expr.Visitor<Void>,
+Stmt.Visitor<Void> {
+	final Set<String> assigned =
+			new HashSet<>();
+	// How many times each name is declared where the scan starts, outside
+	// any function or block scope
+	final Map<String, Integer> declarations =
+			new HashMap<>();
+	boolean imports = false;
+	// Whether it calls or reads properties, which can run any code
+	boolean calls = false;
+	private boolean global = true;
+	
+	Scan(List<Stmt> statements) {
+		statements(statements, true);
+	}
+	
+	private void statements(List<Stmt> statements, boolean global) {
+		boolean enclosing = this.global;
+		this.global = global;
+		for (Stmt statement : statements) {
+			statement.accept(this);
+		}
+		this.global = enclosing;
+	}
+	
+	private void declare(TToken name) {
+		if (global)
+			declarations.merge(name.lexeme, 1, Integer::sum);
+	}
+	
+	private void function(Expr.Function function) {
+		statements(function.body, false);
+	}
+	
+	private void scan(Expr expr) {
+		if (expr != null)
+			expr.accept(this);
+	}
+	
+	@Override
+	public Void visitExpression(Stmt.Expression stmt) {
+		scan(stmt.expression);
+		return null;
+	}
+	
+	@Override
+	public Void visitDebug(Stmt.Debug stmt) {
+		scan(stmt.expression);
+		return null;
+	}
+	
+	@Override
+	public Void visitVar(Stmt.Var stmt) {
+		declare(stmt.name);
+		scan(stmt.initializer);
+		return null;
+	}
+	
+	@Override
+	public Void visitBlock(Stmt.Block stmt) {
+		// A block that declares anything is a local scope
+		boolean declares = false;
+		for (Stmt statement : stmt.statements) {
+			declares = declares || statement instanceof Stmt.Var ||
+					statement instanceof Stmt.Function ||
+					statement instanceof Stmt.Module ||
+					statement instanceof Stmt.Map;
+		}
+		statements(stmt.statements, global && !declares);
+		return null;
+	}
+	
+	@Override
+	public Void visitIf(Stmt.If stmt) {
+		scan(stmt.condition);
+		stmt.thenBranch.accept(this);
+		if (stmt.elseBranch != null)
+			stmt.elseBranch.accept(this);
+		return null;
+	}
+	
+	@Override
+	public Void visitWhile(Stmt.While stmt) {
+		scan(stmt.condition);
+		stmt.body.accept(this);
+		return null;
+	}
+	
+	@Override
+	public Void visitFunction(Stmt.Function stmt) {
+		declare(stmt.name);
+		function(stmt.expr);
+		return null;
+	}
+	
+	@Override
+	public Void visitReturn(Stmt.Return stmt) {
+		scan(stmt.value);
+		return null;
+	}
+	
+	@Override
+	public Void visitModule(Stmt.Module stmt) {
+		declare(stmt.name);
+		for (Stmt.Function method : stmt.methods) {
+			function(method.expr);
+		}
+		return null;
+	}
+	
+	@Override
+	public Void visitMap(Stmt.Map stmt) {
+		declare(stmt.name);
+		for (Stmt.MapValue value : stmt.values) {
+			scan(value.value);
+		}
+		return null;
+	}
+	
+	@Override
+	public Void visitMapValue(Stmt.MapValue stmt) {
+		scan(stmt.value);
+		return null;
+	}
+	
+	@Override
+	public Void visitImport(Stmt.Import stmt) {
+		imports = true;
+		calls = true;
+		return null;
+	}
+	
+	@Override
+	public Void visitBinary(Expr.Binary expr) {
+		scan(expr.left);
+		scan(expr.right);
+		return null;
+	}
+	
+	@Override
+	public Void visitGrouping(Expr.Grouping expr) {
+		scan(expr.expression);
+		return null;
+	}
+	
+	@Override
+	public Void visitLiteral(Expr.Literal expr) {
+		return null;
+	}
+	
+	@Override
+	public Void visitUnary(Expr.Unary expr) {
+		scan(expr.right);
+		return null;
+	}
+	
+	@Override
+	public Void visitVariable(Expr.Variable expr) {
+		return null;
+	}
+	
+	@Override
+	public Void visitAssign(Expr.Assign expr) {
+		assigned.add(expr.name.lexeme);
+		scan(expr.value);
+		return null;
+	}
+	
+	@Override
+	public Void visitLogical(Expr.Logical expr) {
+		scan(expr.left);
+		scan(expr.right);
+		return null;
+	}
+	
+	@Override
+	public Void visitCall(Expr.Call expr) {
+		calls = true;
+		scan(expr.callee);
+		expr.arguments.forEach(this::scan);
+		return null;
+	}
+	
+	@Override
+	public Void visitGet(Expr.Get expr) {
+		calls = true;
+		scan(expr.object);
+		return null;
+	}
+	
+	@Override
+	public Void visitSet(Expr.Set expr) {
+		calls = true;
+		scan(expr.object);
+		scan(expr.value);
+		return null;
+	}
+	
+	@Override
+	public Void visitArray(Expr.Array expr) {
+		expr.elements.forEach(this::scan);
+		return null;
+	}
+	
+	@Override
+	public Void visitFunction(Expr.Function expr) {
+		function(expr);
+		return null;
+	}
+}
@@ -8,28 +8,80 @@ import static tau.literal.TType.*;
 
 public class Parser {
 	private static class ParseError extends RuntimeException {}
-	private final List<TToken> tokens;
+	private final TTokens tokens;
 	private int current = 0;
+	// Whether named functions at the top level are left unparsed until
+	// they're first called
+	private final boolean lazy;
+	// Where parsing stops short of the end of the source, if it does
+	private int end = -1;
 	
 	public Parser(
-			List<TToken> tokens) {
+			TTokens tokens) {
+		this(tokens, false);
+	}
+	
+	public Parser(TTokens tokens, boolean lazy) {
 		this.tokens = tokens;
+		this.lazy = lazy;
 	}
 	
 	public List<Stmt> parseTokens() {
 		List<Stmt> statements = new ArrayList<>();
 	    while (!atEnd()) {
-	    		statements.add(baseDecl());
+	    		statements.add(lazy ? lazyDecl() : baseDecl());
 	    }
 	    return statements;
 	}
 	
+	// The body of a function lazyDecl skipped, from the token after its do
+	// up to its end
+	public List<Stmt> parseBody(int start, int end) {
+		current = start;
+		this.end = end;
+		List<Stmt> statements = new ArrayList<>();
+		while (!atEnd()) {
+			statements.add(baseDecl());
+		}
+		return statements;
+	}
+	
+	private Stmt lazyDecl() {
+		if (!check(DEFFUN) || !checkNext(IDENTIFIER))
+			return baseDecl();
+		try {
+			expect(DEFFUN, null);
+			TToken name = consume(IDENTIFIER, "Expect function name.");
+			List<TToken> parameters = parameters("function");
+			expect(DO, "Expect 'do' before function body.");
+			int start = current;
+			// Only do and end are matched, the rest is left to parseBody
+			int depth = 0;
+			while (!atEnd() && (depth > 0 || !check(END))) {
+				if (check(DO))
+					depth++;
+				else if (check(END))
+					depth--;
+				advance();
+			}
+			Expr.Function function =
+					new Expr.Function(parameters, new ArrayList<>());
+			function.deferred =
+					new Expr.Function.Deferred(name, tokens, start, current);
+			expect(END, "Expect '}' after block statement.");
+			return new Stmt.Function(name, function);
+		} catch(ParseError e) {
+			sync();
+			return null;
+		}
+	}
+	
 	private Stmt baseDecl() {
 		try {
 			if(match(LET))
 				return varDecl();
 			if (check(DEFFUN) && checkNext(IDENTIFIER)) {
-				consume(DEFFUN, null);
+				expect(DEFFUN, null);
 				return function("function");
 			}
 			if (match(DEFM)) 
@@ -49,22 +101,26 @@ public class Parser {
 	}
 
 	private Expr.Function functionBody(String kind) {
-		  consume(LEFT_PAREN, "Expect '(' after " + kind + " name.");
+		  List<TToken> parameters = parameters(kind);
+		  expect(DO, "Expect 'do' before " + kind + " body.");
+		  List<Stmt> body = blockStmt();
+		  return new Expr.Function(parameters, body);
+	}
+	
+	private List<TToken> parameters(String kind) {
+		  expect(LEFT_PAREN, "Expect '(' after " + kind + " name.");
 		  List<TToken> parameters = new ArrayList<>();
 		  if (!check(RIGHT_PAREN)) {
 		    do {
 		      if (parameters.size() >= 8) {
-		        parsingError(peek(), "Cannot have more than 8 parameters.");
+		        parsingError("Cannot have more than 8 parameters.");
 		      }
 
 		      parameters.add(consume(IDENTIFIER, "Expect parameter name."));
 		    } while (match(COMMA));
 		  }
-		  consume(RIGHT_PAREN, "Expect ')' after parameters.");
-
-		  consume(DO, "Expect 'do' before " + kind + " body.");
-		  List<Stmt> body = blockStmt();
-		  return new Expr.Function(parameters, body);
+		  expect(RIGHT_PAREN, "Expect ')' after parameters.");
+		  return parameters;
 	}
 	
 	private Stmt varDecl() {
@@ -94,30 +150,30 @@ public class Parser {
 	
 	private Stmt moduleDecl() {
 		TToken name = consume(IDENTIFIER, "Expected module name.");
-		consume(DO, "Expected 'do' before module body.");
+		expect(DO, "Expected 'do' before module body.");
 		List<Stmt.Function> methods = new ArrayList<>();
 	    while (!check(END) && !atEnd()) {
 	    		methods.add(function("method"));
 	    }
-	    consume(END, "Expect 'end' after module body.");
+	    expect(END, "Expect 'end' after module body.");
 	    return new Stmt.Module(name, methods);
 	}
 	
 	private Stmt mapDecl() {
 		TToken name = consume(IDENTIFIER, "Expect name of map.");
-		consume(DO, "Expected 'do' before map body.");
+		expect(DO, "Expected 'do' before map body.");
 		List<Stmt.MapValue> values =
 				new ArrayList<>();
 		while(!check(END) && !atEnd()) {
 			values.add(mapValue());
 		}
-		consume(END, "Expect 'end' after map body.");
+		expect(END, "Expect 'end' after map body.");
 		return new Stmt.Map(name, values);
 	}
 	
 	private Stmt.MapValue mapValue() {
 		TToken name = consume(IDENTIFIER, "Expected map value name.");
-		consume(COLON, "Expect ':' after name.");
+		expect(COLON, "Expect ':' after name.");
 		Expr value = baseExpr();
 		return new Stmt.MapValue(name, value);
 	}
@@ -133,17 +189,17 @@ public class Parser {
 	}
 	
 	private Stmt whileStmt() {
-	    consume(LEFT_PAREN, "Expect '(' after 'while'.");
+	    expect(LEFT_PAREN, "Expect '(' after 'while'.");
 	    Expr condition = baseExpr();
-	    consume(RIGHT_PAREN, "Expect ')' after condition.");
+	    expect(RIGHT_PAREN, "Expect ')' after condition.");
 	    Stmt body = baseStmt();
 	    return new Stmt.While(condition, body);
 	}
 	
 	private Stmt ifStmt() {
-		consume(LEFT_PAREN, "Expect '(' before condition.");
+		expect(LEFT_PAREN, "Expect '(' before condition.");
 		Expr condition = baseExpr();
-		consume(RIGHT_PAREN, "Expect ')' after condition.");
+		expect(RIGHT_PAREN, "Expect ')' after condition.");
 		Stmt thenBranch = baseStmt();
 		Stmt elseBranch = null;
 		if(match(ELSE)) {
@@ -157,7 +213,7 @@ public class Parser {
 		while(!check(END) && !atEnd()) {
 			statements.add(baseDecl());
 		}
-		consume(END, "Expect '}' after block statement.");
+		expect(END, "Expect '}' after block statement.");
 		return statements;
 	}
 	
@@ -197,13 +253,16 @@ public class Parser {
 	private Expr assignmentExpr() {
 		Expr expr = orExpr();
 		if(match(EQUAL)) {
-			TToken equals = previous();
 			Expr value = assignmentExpr();
 			if(expr instanceof Expr.Variable) {
 				TToken name = ((Expr.Variable)expr).name;
 				return new Expr.Assign(name, value);
 			}
-			parsingError(peek(), "Invalid assignment target.");
+			if(expr instanceof Expr.Get) {
+				Expr.Get get = (Expr.Get)expr;
+				return new Expr.Set(get.object, get.name, value);
+			}
+			parsingError("Invalid assignment target.");
 		}
 		return expr;
 	}
@@ -299,7 +358,7 @@ public class Parser {
 		if(!check(RIGHT_PAREN)) {
 			do {
 				if(arguments.size() >= 32) {
-					parsingError(peek(),
+					parsingError(
 							"Can't have more than 32 arguments on a call.");
 				}
 				arguments.add(baseExpr());
@@ -310,8 +369,8 @@ public class Parser {
 	}
 	
 	private Expr symbolExpr() {
-		consume(IDENTIFIER, "Expected identifier after '@'.");
-		return new Expr.Literal(previous().literal);
+		expect(IDENTIFIER, "Expected identifier after '@'.");
+		return new Expr.Literal(tokens.literal(current - 1));
 	}
 	
 	private Expr primaryExpr() {
@@ -324,7 +383,7 @@ public class Parser {
 		if(match(LEFT_BRACK))
 			return arrayExpr();
 		if(match(NUMBER, STRING)) {
-			return new Expr.Literal(previous().literal);
+			return new Expr.Literal(tokens.literal(current - 1));
 		}
 		if(match(IDENTIFIER)) {
 		      return new Expr.Variable(previous());
@@ -334,22 +393,33 @@ public class Parser {
 		}
 		if(match(LEFT_PAREN)) {
 			Expr expr = baseExpr();
-			consume(RIGHT_PAREN, "Expect ')' after grouping expression.");
+			expect(RIGHT_PAREN, "Expect ')' after grouping expression.");
 			return new Expr.Grouping(expr);
 		}
 		if (match(DEFFUN)) 
 			return functionBody("function");
-		throw parsingError(peek(), "Expect expression.");
+		throw parsingError("Expect expression.");
 	}
 	
 	// Helpers
 	
-	private ParseError parsingError(TToken token,
-			String message) {
-		Error.error(token, message);
+	private ParseError parsingError(String message) {
+		Error.error(tokens.line(current), message);
 		return new ParseError();
 	}
 	
+	private boolean match(TType type) {
+		if(check(type)) {
+			advance();
+			return true;
+		}
+		return false;
+	}
+	
+	private boolean match(TType first, TType second) {
+		return match(first) || match(second);
+	}
+	
 	private boolean match(TType... types) {
 		for(TType type : types) {
 			if(check(type)) {
@@ -362,44 +432,49 @@ public class Parser {
 	
 	private boolean check(TType type) {
 		if(atEnd()) return false;
-		return peek().type == type;
+		return tokens.type(current) == type;
 	}
 	
 	private boolean checkNext(TType tokenType) {
 		if (atEnd()) return false;
-		if (tokens.get(current + 1).type == EOF) return false;
-		return tokens.get(current + 1).type == tokenType;
+		if (tokens.type(current + 1) == EOF) return false;
+		return tokens.type(current + 1) == tokenType;
 	}
 	
 	private boolean atEnd() {
-		return peek().type == EOF;
-	}
-	
-	private TToken peek() {
-		return tokens.get(current);
+		return current == end || tokens.type(current) == EOF;
 	}
 	
+	// Only the tokens kept in the tree are made into TTokens
 	private TToken previous() {
-		return tokens.get(current - 1);
+		return tokens.token(current - 1);
 	}
 	
-	private TToken advance() {
+	private void advance() {
 		if(!atEnd()) current++;
-		return previous();
 	}
 	
 	private TToken consume(TType type,
 			String message) {
-		if(check(type)) return advance();
-		throw parsingError(peek(), message);
+		expect(type, message);
+		return previous();
+	}
+	
+	private void expect(TType type,
+			String message) {
+		if(check(type)) {
+			advance();
+			return;
+		}
+		throw parsingError(message);
 	}
 	
 	private void sync() {
 		advance();
 		while(!atEnd()) {
-			if(previous().type == SEMICOLON)
+			if(tokens.type(current - 1) == SEMICOLON)
 				return;
-			switch(peek().type) {
+			switch(tokens.type(current)) {
 			case DEFFUN:
 			case DEFM:
 			case DEFMAP:
@@ -0,0 +1,156 @@
+package tau.parser;
+
+import java.util.*;
+import java.util.stream.*;
+import tau.ast.*;
+import tau.literal.*;
+import tau.scanner.*;
+import tau.error.Error;
+
+// Scans and parses a whole source. A large one is cut before declarations
+// at the top level, which no statement before them reaches past, and the
+// pieces are scanned and parsed on the common ForkJoin pool. A source with
+// errors is parsed again in one piece, so they are reported as they always
+// were.
+public class SourceParser {
+	// Below this many characters a source isn't worth splitting
+	private static final int PIECE = 1 << 17;
+	
+	private final Source source;
+	// Whether top-level functions are only parsed when first called
+	private final boolean lazy;
+	
+	public SourceParser(Source source) {
+		this(source, false);
+	}
+	
+	public SourceParser(Source source, boolean lazy) {
+		this.source = source;
+		this.lazy = lazy;
+	}
+	
+	public List<Stmt> parse() {
+		int parallelism = Runtime.getRuntime().availableProcessors();
+		if (parallelism > 1 && source.length >= 2 * PIECE) {
+			List<Stmt> statements = parseSplit(
+					Math.max(PIECE, source.length / (4 * parallelism)));
+			if (statements != null)
+				return statements;
+		}
+		return parse(0, source.length, 1);
+	}
+	
+	private List<Stmt> parse(int start, int end, int line) {
+		TTokens tokens = new TScanner(source, start, end, line).scan();
+		return new Parser(tokens, lazy).parseTokens();
+	}
+	
+	private List<Stmt> parseSplit(int size) {
+		List<int[]> pieces = split(size);
+		if (pieces.size() < 2)
+			return null;
+		List<List<Stmt>> parsed = pieces.parallelStream()
+				.map(this::tryParse)
+				.collect(Collectors.toList());
+		List<Stmt> statements = new ArrayList<>();
+		for (List<Stmt> piece : parsed) {
+			if (piece == null)
+				return null;
+			statements.addAll(piece);
+		}
+		return statements;
+	}
+	
+	// Null when the piece has errors, or nests deeper than the stack of a
+	// pool thread allows
+	private List<Stmt> tryParse(int[] piece) {
+		Error.beginTrial();
+		List<Stmt> statements;
+		try {
+			statements = parse(piece[0], piece[1], piece[2]);
+		} catch (StackOverflowError e) {
+			statements = null;
+		}
+		return Error.endTrial() == 0 ? statements : null;
+	}
+	
+	// Pieces of at least size characters as start, end and first line
+	private List<int[]> split(int size) {
+		char[] chars = source.chars;
+		int end = source.length;
+		List<int[]> pieces = new ArrayList<>();
+		int start = 0;
+		int startLine = 1;
+		int line = 1;
+		int depth = 0;
+		int i = 0;
+		while (i < end) {
+			char c = chars[i];
+			if (c == '\n') {
+				line++;
+				i++;
+			} else if (c == '"') {
+				i++;
+				while (i < end && chars[i] != '"') {
+					if (chars[i] == '\n')
+						line++;
+					i++;
+				}
+				i++;
+			} else if (c == '(' || c == '[' || c == '{') {
+				depth++;
+				i++;
+			} else if (c == ')' || c == ']' || c == '}') {
+				depth--;
+				i++;
+			} else if (isAlpha(c)) {
+				int word = i;
+				while (i < end && (isAlpha(chars[i]) || isDigit(chars[i])))
+					i++;
+				if (is(word, i, "do")) {
+					depth++;
+				} else if (is(word, i, "end")) {
+					depth--;
+				} else if (depth == 0 && word - start >= size &&
+						declares(word, i)) {
+					pieces.add(new int[] { start, word, startLine });
+					start = word;
+					startLine = line;
+				}
+			} else {
+				i++;
+			}
+		}
+		pieces.add(new int[] { start, end, startLine });
+		return pieces;
+	}
+	
+	// Whether the word from start to end begins a declaration, a def being
+	// one only when it names its function
+	private boolean declares(int start, int end) {
+		if (is(start, end, "let") || is(start, end, "module") ||
+				is(start, end, "map"))
+			return true;
+		if (!is(start, end, "def"))
+			return false;
+		char[] chars = source.chars;
+		int i = end;
+		while (i < source.length && (chars[i] == ' ' || chars[i] == '\t' ||
+				chars[i] == '\r' || chars[i] == '\n'))
+			i++;
+		return i < source.length && isAlpha(chars[i]);
+	}
+	
+	private boolean is(int start, int end, String word) {
+		return end - start == word.length() &&
+				source.regionMatches(start, word);
+	}
+	
+	private boolean isAlpha(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+	}
+	
+	private boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+}
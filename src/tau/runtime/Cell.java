@@ -0,0 +1,14 @@
+package tau.runtime;
+
+// Box for a variable that closures capture and that can still change after
+// they copied it, so every copy sees the same value
+public class Cell {
+	public Object value;
+	
+	public Cell() {
+	}
+	
+	public Cell(Object value) {
+		this.value = value;
+	}
+}
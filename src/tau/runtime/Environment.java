@@ -1,30 +1,71 @@
 package tau.runtime;
 
 import java.util.*;
+import tau.ast.*;
 import tau.literal.*;
 import tau.interpreter.Interpreter;
 
 public class Environment {
 	public final Environment enclosing;
-	private final Map<String, Object> values =
-			new HashMap<>();
+	// Variables the running function copied from its enclosing ones, shared
+	// by the function's frame and the blocks inside it
+	public final Object[] captures;
+	// Only the global environment is keyed by name, every other frame
+	// stores its variables in the slots the Analyzer assigned them. A
+	// global keeps its index for good, so sites naming it can cache that
+	private final Map<String, Integer> indices;
+	private Object[] slots;
+	private int count = 0;
 	
 	public Environment() {
 		enclosing = null;
+		captures = null;
+		indices = new HashMap<>();
+		slots = new Object[16];
 	}
 	
-	public Environment(Environment enclosing) {
+	public Environment(Environment enclosing, int size) {
 		this.enclosing = enclosing;
+		this.captures = enclosing.captures;
+		this.indices = null;
+		this.slots = new Object[size];
+	}
+	
+	public Environment(Object[] captures, int size) {
+		this.enclosing = null;
+		this.captures = captures;
+		this.indices = null;
+		this.slots = new Object[size];
 	}
 	
 	public void define(String name, Object value) {
-		values.put(name, value);
+		Integer index = indices == null ? null : indices.get(name);
+		if(index != null) {
+			slots[index] = value;
+			return;
+		}
+		if(indices != null)
+			indices.put(name, count);
+		define(value);
+	}
+	
+	public void define(Object value) {
+		if(count == slots.length) {
+			slots = Arrays.copyOf(slots, Math.max(4, count * 2));
+		}
+		slots[count++] = value;
+	}
+	
+	public void clear() {
+		Arrays.fill(slots, 0, count, null);
+		count = 0;
 	}
 	
 	public void assign(TToken name,
 			Object value) {
-		if(values.containsKey(name.lexeme)) {
-			values.put(name.lexeme, value);
+		Integer index = indices == null ? null : indices.get(name.lexeme);
+		if(index != null) {
+			slots[index] = value;
 			return;
 		}
 		if (enclosing != null) {
@@ -36,8 +77,9 @@ public class Environment {
 	}
 	
 	public Object get(TToken name) {
-	    if (values.containsKey(name.lexeme)) {
-	      return values.get(name.lexeme);
+	    Integer index = indices == null ? null : indices.get(name.lexeme);
+	    if (index != null) {
+	      return slots[index];
 	    }
 	    if(enclosing != null)
 	    		return enclosing.get(name);
@@ -45,18 +87,36 @@ public class Environment {
 	        "Undefined variable '" + name.lexeme + "'.");
 	}
 	
-	public Object getAt(int distance, String name) {
-	    return ancestor(distance).values.get(name);
+	public Object get(Expr.Variable site) {
+		if (site.index < 0) {
+			Object value = get(site.name);
+			site.index = indices.get(site.name.lexeme);
+			return value;
+		}
+		return slots[site.index];
+	}
+	
+	public void assign(Expr.Assign site, Object value) {
+		if (site.index < 0) {
+			assign(site.name, value);
+			site.index = indices.get(site.name.lexeme);
+			return;
+		}
+		slots[site.index] = value;
+	}
+	
+	public Object getAt(int distance, int slot) {
+	    return ancestor(distance).slots[slot];
 	}
 	
-	public void assignAt(int distance, TToken name, Object value) {
-	    ancestor(distance).values.put(name.lexeme, value);
+	public void assignAt(int distance, int slot, Object value) {
+	    ancestor(distance).slots[slot] = value;
 	}
 	
 	public Environment ancestor(int distance) {
 	    Environment environment = this;
 	    for (int i = 0; i < distance; i++) {
-	    		environment = environment.enclosing; 
+	    		environment = environment.enclosing;
 	    }
 	    return environment;
 	}
@@ -2,19 +2,47 @@ package tau.runtime;
 
 import tau.ast.*;
 import tau.interpreter.*;
+import tau.jit.Compiler;
+import java.lang.invoke.MethodHandle;
 import java.util.*;
 
 public class Function implements ICallable {
 	private String name;
 	private final Expr.Function declaration;
-	private final Environment closure;
+	// Closures copy what they use from the frames around them, so no frame
+	// outlives its call and released ones are reused by the next call
+	private final Object[] captures;
+	private Environment[] frames = null;
+	private int free = 0;
+	// Calls plus loop iterations seen while interpreted, the body is
+	// compiled to method handles once this reaches HOT
+	private static final int HOT = 1000;
+	private int hotness = 0;
+	private MethodHandle compiled = null;
+	// What a body returns when it ended in a self tail call
+	public static final Object TAIL_CALL = new Object();
 	
 	public Function(
 			String name,
-			Expr.Function declaration, Environment closure) {
+			Expr.Function declaration, Environment enclosing) {
 		this.name = name;
-		this.closure = closure;
 		this.declaration = declaration;
+		this.captures = capture(declaration, enclosing);
+	}
+	
+	private static Object[] capture(Expr.Function declaration,
+			Environment enclosing) {
+		Expr.Function.Capture[] list = declaration.captures;
+		if (list.length == 0)
+			return null;
+		Object[] captures = new Object[list.length];
+		for (int i = 0; i < list.length; i++) {
+			Expr.Function.Capture capture = list[i];
+			captures[i] = capture.local ?
+					enclosing.getAt(capture.depth, capture.index) :
+					enclosing.captures[capture.index];
+		}
+		return captures;
 	}
 	
 	@Override
@@ -24,16 +52,146 @@ public class Function implements ICallable {
 	
 	@Override
 	public Object call(Interpreter interpreter, List<Object> arguments) {
-		Environment environment = new Environment(closure);
+		Environment environment = frame(interpreter);
 	    for (int i = 0; i < declaration.parameters.size(); i++) {
-	    		environment.define(declaration.parameters.get(i).lexeme,
-	    				arguments.get(i));
+	    		environment.define(arguments.get(i));
 	    }
-	    try {
-	        interpreter.executeBlock(declaration.body, environment);
-	    } catch (Interpreter.Return returnValue) {
-	        return returnValue.value;
+	    return invoke(interpreter, environment);
+	}
+	
+	@Override
+	public Object call0(Interpreter interpreter) {
+		return invoke(interpreter, frame(interpreter));
+	}
+	
+	@Override
+	public Object call1(Interpreter interpreter, Object a) {
+		Environment environment = frame(interpreter);
+		environment.define(a);
+		return invoke(interpreter, environment);
+	}
+	
+	@Override
+	public Object call2(Interpreter interpreter, Object a,
+			Object b) {
+		Environment environment = frame(interpreter);
+		environment.define(a);
+		environment.define(b);
+		return invoke(interpreter, environment);
+	}
+	
+	@Override
+	public Object call3(Interpreter interpreter, Object a,
+			Object b, Object c) {
+		Environment environment = frame(interpreter);
+		environment.define(a);
+		environment.define(b);
+		environment.define(c);
+		return invoke(interpreter, environment);
+	}
+	
+	@Override
+	public Object call4(Interpreter interpreter, Object a,
+			Object b, Object c, Object d) {
+		Environment environment = frame(interpreter);
+		environment.define(a);
+		environment.define(b);
+		environment.define(c);
+		environment.define(d);
+		return invoke(interpreter, environment);
+	}
+	
+	private Environment frame(Interpreter interpreter) {
+		if (declaration.deferred != null)
+			interpreter.complete(declaration);
+		if (free > 0)
+			return frames[--free];
+		return new Environment(captures, declaration.slots);
+	}
+	
+	private Object invoke(Interpreter interpreter, Environment environment) {
+		Function caller = interpreter.running;
+		interpreter.running = this;
+		try {
+			Object result;
+			box(environment);
+			// A self call in tail position hands its arguments back here and
+			// the body runs again, rather than nesting another call
+			while ((result = execute(interpreter, environment)) == TAIL_CALL) {
+				environment = next(environment, interpreter.tailArguments);
+				interpreter.tailArguments = null;
+				box(environment);
+			}
+			release(environment);
+			return result;
+		} finally {
+			interpreter.running = caller;
+		}
+	}
+	
+	private Object execute(Interpreter interpreter, Environment environment) {
+		if (compiled != null)
+			return run(environment);
+		int backEdges = interpreter.backEdges;
+		Interpreter.Completion completion =
+				interpreter.executeBlock(declaration.body, environment);
+	    if (interpreter.jit && hotness < HOT) {
+	    		hotness += 1 + interpreter.backEdges - backEdges;
+	    		if (hotness >= HOT)
+	    			compiled = new Compiler(interpreter).compile(declaration);
 	    }
-	    return null;
+		switch(completion) {
+		case RETURN:
+			return interpreter.takeReturnValue();
+		case TAIL_CALL:
+			return TAIL_CALL;
+		default:
+			return null;
+		}
+	}
+	
+	private Environment next(Environment environment, Object[] arguments) {
+		environment.clear();
+		for (Object argument : arguments) {
+			environment.define(argument);
+		}
+		return environment;
+	}
+	
+	private void box(Environment environment) {
+		boolean[] cells = declaration.cells;
+		if (cells == null)
+			return;
+		for (int i = 0; i < cells.length; i++) {
+			if (cells[i])
+				environment.assignAt(0, i, new Cell(environment.getAt(0, i)));
+		}
+	}
+	
+	private void release(Environment environment) {
+		environment.clear();
+		if (frames == null) {
+			frames = new Environment[4];
+		} else if (free == frames.length) {
+			frames = Arrays.copyOf(frames, free * 2);
+		}
+		frames[free++] = environment;
+	}
+	
+	private Object run(Environment environment) {
+		Object result;
+		try {
+			result = (Object)compiled.invokeExact(environment);
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new RuntimeException(e);
+		}
+		return result == Compiler.NORMAL ? null : result;
+	}
+	
+	@Override
+	public String toString() {
+		return name == null ? "<fn>" : "<fn " + name + ">";
 	}
 }
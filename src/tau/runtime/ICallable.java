@@ -7,4 +7,30 @@ public interface ICallable {
 	public int arity();
 	public Object call(Interpreter interpreter,
 			List<Object> arguments);
+	
+	// Entry points for call sites that know their argument count, callables
+	// that care about allocation override these instead of taking a list
+	
+	public default Object call0(Interpreter interpreter) {
+		return call(interpreter, Collections.emptyList());
+	}
+	
+	public default Object call1(Interpreter interpreter, Object a) {
+		return call(interpreter, Collections.singletonList(a));
+	}
+	
+	public default Object call2(Interpreter interpreter, Object a,
+			Object b) {
+		return call(interpreter, Arrays.asList(a, b));
+	}
+	
+	public default Object call3(Interpreter interpreter, Object a,
+			Object b, Object c) {
+		return call(interpreter, Arrays.asList(a, b, c));
+	}
+	
+	public default Object call4(Interpreter interpreter, Object a,
+			Object b, Object c, Object d) {
+		return call(interpreter, Arrays.asList(a, b, c, d));
+	}
 }
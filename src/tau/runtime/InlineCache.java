@@ -0,0 +1,29 @@
+package tau.runtime;
+
+public class InlineCache {
+	public static final Object MISS = new Object();
+	private static final int SIZE = 4;
+	private final Object[] keys = 
+			new Object[SIZE];
+	private final Object[] values = 
+			new Object[SIZE];
+	private int count = 0;
+	
+	public Object lookup(Object key) {
+		for(int i = 0; i < count; i++) {
+			if(keys[i] == key)
+				return values[i];
+		}
+		return MISS;
+	}
+	
+	public void update(Object key, Object value) {
+		// Once a site has seen SIZE receivers it stays megamorphic and only
+		// the receivers it already knows are served from the cache
+		if(count == SIZE)
+			return;
+		keys[count] = key;
+		values[count] = value;
+		count++;
+	}
+}
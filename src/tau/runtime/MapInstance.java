@@ -1,23 +1,22 @@
 package tau.runtime;
 
-import tau.ast.*;
 import tau.interpreter.Interpreter;
 import tau.literal.*;
 import java.util.*;
 
 public class MapInstance {
 	public final TToken name;
-	public final Map<String, Stmt.MapValue> values;
+	public final Map<String, Object> values;
 	
 	public MapInstance(TToken name,
-			Map<String, Stmt.MapValue> values) {
+			Map<String, Object> values) {
 		this.name = name;
 		this.values = values;
 	}
 	
 	public Object get(TToken name) {
 		if (values.containsKey(name.lexeme)) {
-		      return values.get(name.lexeme).value;
+		      return values.get(name.lexeme);
 		}
 		throw new Interpreter.RuntimeError(name, 
 		     "Undefined property '" + name.lexeme + "'.");
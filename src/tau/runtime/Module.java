@@ -5,15 +5,17 @@ import tau.interpreter.*;
 
 public class Module implements ICallable {
 	public final String name;
-	private final Map<String, Function> methods;
+	public final Shape shape = 
+			new Shape();
+	private final Map<String, ICallable> methods;
 	
 	public Module(String name, 
-			Map<String, Function> methods) {
+			Map<String, ICallable> methods) {
 		this.name = name;
 		this.methods = methods;
 	}
 	
-	public Function findMethod(ModuleInstance instance, 
+	public ICallable findMethod(ModuleInstance instance, 
 			String name) {
 	    if (methods.containsKey(name)) {
 	      return methods.get(name);
@@ -5,24 +5,61 @@ import tau.interpreter.*;
 import tau.literal.*;
 
 public class ModuleInstance {
+	private static final Object[] NO_FIELDS = new Object[0];
 	private Module mod;
-	private final Map<String, Object> fields = 
-			new HashMap<>();
+	private Shape shape;
+	private Object[] fields = NO_FIELDS;
 
 	public ModuleInstance(Module mod) {
 	    this.mod = mod;
+	    this.shape = mod == null ? null : mod.shape;
 	}
 	
 	public Object get(TToken name) {
-		if (fields.containsKey(name.lexeme)) {
-		      return fields.get(name.lexeme);
+		return read(lookup(name));
+	}
+	
+	// Resolves a property to the field slot holding it or to its value, the
+	// result only depends on cacheKey() so call sites may keep it
+	public Object lookup(TToken name) {
+		if (shape == null)
+			return get(name);
+		Shape.Slot slot = shape.slot(name.lexeme);
+		if (slot != null) {
+		      return slot;
 		}
-		Function method = mod.findMethod(this, name.lexeme);
+		ICallable method = mod.findMethod(this, name.lexeme);
 	    if (method != null) return method;
 		throw new Interpreter.RuntimeError(name, 
 		     "Undefined property '" + name.lexeme + "'.");
 	}
 	
+	public Object read(Object property) {
+		if (property instanceof Shape.Slot)
+			return fields[((Shape.Slot) property).index];
+		return property;
+	}
+	
+	public void set(TToken name, Object value) {
+		if (shape == null) {
+			throw new Interpreter.RuntimeError(name,
+					"Can't add properties to core objects.");
+		}
+		Shape.Slot slot = shape.slot(name.lexeme);
+		if (slot == null) {
+			shape = shape.transition(name.lexeme);
+			slot = shape.slot(name.lexeme);
+			fields = Arrays.copyOf(fields, shape.size);
+		}
+		fields[slot.index] = value;
+	}
+	
+	// What a property lookup on this instance depends on, so call sites can
+	// cache the result per key. Null means the lookup can't be cached.
+	public Object cacheKey() {
+		return shape;
+	}
+	
 	@Override
 	public String toString() {
 	    return mod.name + " instance";
@@ -0,0 +1,124 @@
+package tau.runtime;
+
+// Arithmetic on Tau numbers, which are Long when integral and Double
+// otherwise. Integers stay integers until divided, mixed with a Double or
+// overflowed, which gives the Double the same operation would have before.
+// Callers check that the operands are numbers.
+public class Numbers {
+	// Boxes of the small integers counters and indices go through
+	private static final int CACHE_LOW = -128;
+	private static final int CACHE_HIGH = 1024;
+	private static final Long[] cache =
+			new Long[CACHE_HIGH - CACHE_LOW];
+	
+	static {
+		for (int i = 0; i < cache.length; i++) {
+			cache[i] = (long) (i + CACHE_LOW);
+		}
+	}
+	
+	private Numbers() {
+	}
+	
+	public static boolean isNumber(Object value) {
+		return value instanceof Long || value instanceof Double;
+	}
+	
+	public static Long box(long value) {
+		if (value >= CACHE_LOW && value < CACHE_HIGH)
+			return cache[(int) value - CACHE_LOW];
+		return value;
+	}
+	
+	public static Object add(long left, long right) {
+		long result = left + right;
+		if (((left ^ result) & (right ^ result)) < 0)
+			return (double) left + (double) right;
+		return box(result);
+	}
+	
+	public static Object subtract(long left, long right) {
+		long result = left - right;
+		if (((left ^ right) & (left ^ result)) < 0)
+			return (double) left - (double) right;
+		return box(result);
+	}
+	
+	public static Object multiply(long left, long right) {
+		long high = Math.multiplyHigh(left, right);
+		long result = left * right;
+		if (high != (result >> 63))
+			return (double) left * (double) right;
+		return box(result);
+	}
+	
+	public static Object add(Object left, Object right) {
+		if (left instanceof Long && right instanceof Long)
+			return add((long) left, (long) right);
+		return toDouble(left) + toDouble(right);
+	}
+	
+	public static Object subtract(Object left, Object right) {
+		if (left instanceof Long && right instanceof Long)
+			return subtract((long) left, (long) right);
+		return toDouble(left) - toDouble(right);
+	}
+	
+	public static Object multiply(Object left, Object right) {
+		if (left instanceof Long && right instanceof Long)
+			return multiply((long) left, (long) right);
+		return toDouble(left) * toDouble(right);
+	}
+	
+	public static Object divide(Object left, Object right) {
+		return toDouble(left) / toDouble(right);
+	}
+	
+	public static Object negate(Object value) {
+		if (value instanceof Long) {
+			long number = (long) value;
+			if (number == Long.MIN_VALUE)
+				return -(double) number;
+			return box(-number);
+		}
+		return -(double) value;
+	}
+	
+	public static boolean greater(Object left, Object right) {
+		if (left instanceof Long && right instanceof Long)
+			return (long) left > (long) right;
+		return toDouble(left) > toDouble(right);
+	}
+	
+	public static boolean greaterEqual(Object left, Object right) {
+		if (left instanceof Long && right instanceof Long)
+			return (long) left >= (long) right;
+		return toDouble(left) >= toDouble(right);
+	}
+	
+	public static boolean less(Object left, Object right) {
+		if (left instanceof Long && right instanceof Long)
+			return (long) left < (long) right;
+		return toDouble(left) < toDouble(right);
+	}
+	
+	public static boolean lessEqual(Object left, Object right) {
+		if (left instanceof Long && right instanceof Long)
+			return (long) left <= (long) right;
+		return toDouble(left) <= toDouble(right);
+	}
+	
+	// Same as Double.equals once both are doubles, so 1 == 1.0
+	public static boolean equal(Object left, Object right) {
+		if (left instanceof Long && right instanceof Long)
+			return (long) left == (long) right;
+		return Double.doubleToLongBits(toDouble(left)) ==
+				Double.doubleToLongBits(toDouble(right));
+	}
+	
+	public static double toDouble(Object value) {
+		if (value instanceof Long)
+			return (long) value;
+		return (double) value;
+	}
+}
@@ -0,0 +1,44 @@
+package tau.runtime;
+
+import java.util.*;
+
+public class Shape {
+	// Field layout shared by every instance that added the same fields in
+	// the same order, starting from the root shape of their module
+	public static class Slot {
+		public final int index;
+		
+		Slot(int index) {
+			this.index = index;
+		}
+	}
+	
+	private final Map<String, Slot> slots;
+	private final Map<String, Shape> transitions =
+			new HashMap<>();
+	public final int size;
+	
+	public Shape() {
+		this.slots = new HashMap<>();
+		this.size = 0;
+	}
+	
+	private Shape(Shape parent, String name) {
+		this.slots = new HashMap<>(parent.slots);
+		this.slots.put(name, new Slot(parent.size));
+		this.size = parent.size + 1;
+	}
+	
+	public Slot slot(String name) {
+		return slots.get(name);
+	}
+	
+	public Shape transition(String name) {
+		Shape next = transitions.get(name);
+		if(next == null) {
+			next = new Shape(this, name);
+			transitions.put(name, next);
+		}
+		return next;
+	}
+}
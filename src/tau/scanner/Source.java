@@ -0,0 +1,55 @@
+package tau.scanner;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+// The text of a script as the scanner reads it, newlines and all so tokens
+// keep their lines. Files are decoded once into the array scanned in place.
+public class Source {
+	// Past this a file is mapped rather than read into the heap first
+	private static final long MAP_THRESHOLD = 1 << 20;
+	
+	public final char[] chars;
+	public final int length;
+	
+	public Source(char[] chars, int length) {
+		this.chars = chars;
+		this.length = length;
+	}
+	
+	public Source(String text) {
+		this(text.toCharArray(), text.length());
+	}
+	
+	public static Source load(String path) throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(path))) {
+			long size = channel.size();
+			ByteBuffer bytes;
+			if (size > MAP_THRESHOLD) {
+				bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			} else {
+				bytes = ByteBuffer.allocate((int) size);
+				while (bytes.hasRemaining() && channel.read(bytes) >= 0)
+					;
+				bytes.flip();
+			}
+			CharBuffer text = StandardCharsets.UTF_8.decode(bytes);
+			return new Source(text.array(), text.limit());
+		}
+	}
+	
+	public String substring(int start, int end) {
+		return new String(chars, start, end - start);
+	}
+	
+	public boolean regionMatches(int start, String word) {
+		for (int i = 0; i < word.length(); i++) {
+			if (chars[start + i] != word.charAt(i))
+				return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,60 @@
+package tau.scanner;
+
+// The names of one source, looked up by the characters they're made of so
+// an identifier seen before takes no new String. A name seen for the first
+// time is interned, so the same name in any source is the same instance.
+public class Symbols {
+	private String[] names = new String[256];
+	private int[] hashes = new int[256];
+	private int count = 0;
+	
+	public String intern(char[] chars, int start, int length) {
+		int hash = 0;
+		for (int i = start; i < start + length; i++) {
+			hash = 31 * hash + chars[i];
+		}
+		int mask = names.length - 1;
+		int index = (hash ^ (hash >>> 16)) & mask;
+		while (names[index] != null) {
+			if (hashes[index] == hash &&
+					same(names[index], chars, start, length))
+				return names[index];
+			index = (index + 1) & mask;
+		}
+		String name = new String(chars, start, length).intern();
+		names[index] = name;
+		hashes[index] = hash;
+		if (++count * 2 > names.length)
+			grow();
+		return name;
+	}
+	
+	private boolean same(String name, char[] chars, int start, int length) {
+		if (name.length() != length)
+			return false;
+		for (int i = 0; i < length; i++) {
+			if (name.charAt(i) != chars[start + i])
+				return false;
+		}
+		return true;
+	}
+	
+	private void grow() {
+		String[] oldNames = names;
+		int[] oldHashes = hashes;
+		names = new String[oldNames.length * 2];
+		hashes = new int[oldNames.length * 2];
+		int mask = names.length - 1;
+		for (int i = 0; i < oldNames.length; i++) {
+			if (oldNames[i] == null)
+				continue;
+			int hash = oldHashes[i];
+			int index = (hash ^ (hash >>> 16)) & mask;
+			while (names[index] != null) {
+				index = (index + 1) & mask;
+			}
+			names[index] = oldNames[i];
+			hashes[index] = hash;
+		}
+	}
+}
@@ -7,51 +7,51 @@ import tau.error.*;
 import tau.error.Error;
 
 public class TScanner {
-	public String source;
-	private int start = 0;
-	private int current = 0;
-	private int line = 1;
-	private final List<TToken> tokens = 
-			new ArrayList<>();
-	private static final Map<String, TType> keywords;
+	public final Source source;
+	private final char[] chars;
+	private final int end;
+	private int start;
+	private int current;
+	private int line;
+	private final TTokens tokens;
+	// Names the scanner has already made a String for
+	private final Symbols symbols = new Symbols();
+	// Powers of ten a double holds exactly
+	private static final double[] powers = new double[23];
 	
 	static {
-		keywords = new HashMap<>();
-		keywords.put("and", AND);
-		keywords.put("or", OR);
-		keywords.put("true", TRUE);
-		keywords.put("false", FALSE);
-		keywords.put("let", LET);
-		keywords.put("if", IF);
-		keywords.put("else", ELSE);
-		keywords.put("while", WHILE);
-		keywords.put("def", DEFFUN);
-		keywords.put("module", DEFM);
-		keywords.put("type", DEFTYPE);
-		keywords.put("map", DEFMAP);
-		keywords.put("del", DEL);
-		keywords.put("none", NONE);
-		keywords.put("return", RETURN);
-		keywords.put("debug", DEBUG);
-		keywords.put("do", DO);
-		keywords.put("end", END);
-		keywords.put("match", MATCH);
-		keywords.put("case", CASE);
-		keywords.put("default", DEFAULT);
-		keywords.put("import", IMPORT);
-		keywords.put("enum", DEFENUM);
+		powers[0] = 1;
+		for (int i = 1; i < powers.length; i++) {
+			powers[i] = powers[i - 1] * 10;
+		}
 	}
 	
-	public TScanner(String source) {
+	public TScanner(Source source) {
+		this(source, 0, source.length, 1);
+	}
+	
+	// Scans only the characters from start to end, which begin on the
+	// given line
+	public TScanner(Source source, int start, int end, int line) {
 		this.source = source;
+		this.chars = source.chars;
+		this.start = start;
+		this.current = start;
+		this.end = end;
+		this.line = line;
+		this.tokens = new TTokens(source, end - start);
 	}
 	
-	public List<TToken> scan() {
+	public TScanner(String source) {
+		this(new Source(source));
+	}
+	
+	public TTokens scan() {
 		while(!atEnd()) {
 			start = current;
 			checkToken();
 		}
-		tokens.add(new TToken(EOF, "", null, line));
+		tokens.add(EOF, current, 0, line, null);
 		return tokens;
 	}
 	
@@ -192,11 +192,72 @@ public class TScanner {
         while (isAlphaNumeric(peek())) {
             advance();
         }
-        // See if the identifier is a reserved word
-        String text = source.substring(start, current);
-        TType type = keywords.get(text);
-        if (type == null) type = IDENTIFIER;
-        receiveToken(type);
+        TType type = keyword();
+        if (type != IDENTIFIER) {
+        		receiveToken(type);
+        		return;
+        }
+        receiveToken(IDENTIFIER,
+        		symbols.intern(chars, start, current - start));
+	}
+	
+	// Narrowed down by length and first letter to the one keyword the
+	// word could be, so only that is compared
+	private TType keyword() {
+		switch (current - start) {
+		case 2:
+			switch (chars[start]) {
+			case 'i': return word("if", IF);
+			case 'o': return word("or", OR);
+			case 'd': return word("do", DO);
+			}
+			break;
+		case 3:
+			switch (chars[start]) {
+			case 'a': return word("and", AND);
+			case 'l': return word("let", LET);
+			case 'e': return word("end", END);
+			case 'm': return word("map", DEFMAP);
+			case 'd':
+				return chars[start + 2] == 'f' ?
+						word("def", DEFFUN) : word("del", DEL);
+			}
+			break;
+		case 4:
+			switch (chars[start]) {
+			case 'n': return word("none", NONE);
+			case 'c': return word("case", CASE);
+			case 't':
+				return chars[start + 1] == 'r' ?
+						word("true", TRUE) : word("type", DEFTYPE);
+			case 'e':
+				return chars[start + 1] == 'l' ?
+						word("else", ELSE) : word("enum", DEFENUM);
+			}
+			break;
+		case 5:
+			switch (chars[start]) {
+			case 'f': return word("false", FALSE);
+			case 'w': return word("while", WHILE);
+			case 'd': return word("debug", DEBUG);
+			case 'm': return word("match", MATCH);
+			}
+			break;
+		case 6:
+			switch (chars[start]) {
+			case 'm': return word("module", DEFM);
+			case 'r': return word("return", RETURN);
+			case 'i': return word("import", IMPORT);
+			}
+			break;
+		case 7:
+			return word("default", DEFAULT);
+		}
+		return IDENTIFIER;
+	}
+	
+	private TType word(String word, TType type) {
+		return source.regionMatches(start, word) ? type : IDENTIFIER;
 	}
 	
 	private void number() {
@@ -206,10 +267,47 @@ public class TScanner {
 			advance();
 			while(isDigit(peek()))
 				advance();
+			receiveToken(NUMBER, decimal());
+			return;
+		}
+		receiveToken(NUMBER, integer());
+	}
+	
+	// Numbers are read from the source where they stand, only the rare ones
+	// that need it go through a String
+	
+	private Object integer() {
+		long value = 0;
+		for (int i = start; i < current; i++) {
+			int digit = chars[i] - '0';
+			// Integers too big for a long are doubles, as they always were
+			if (value > (Long.MAX_VALUE - digit) / 10)
+				return Double.parseDouble(source.substring(start, current));
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+	
+	private Object decimal() {
+		long digits = 0;
+		int scale = 0;
+		boolean fraction = false;
+		for (int i = start; i < current; i++) {
+			char c = chars[i];
+			if (c == '.') {
+				fraction = true;
+				continue;
+			}
+			if (digits > ((1L << 53) - 9) / 10)
+				return Double.parseDouble(source.substring(start, current));
+			digits = digits * 10 + (c - '0');
+			if (fraction)
+				scale++;
 		}
-		receiveToken(NUMBER,
-				Double.parseDouble(source.substring(
-						start, current)));
+		// Both exact, so the quotient is rounded once, as parsing would
+		if (scale >= powers.length)
+			return Double.parseDouble(source.substring(start, current));
+		return digits / powers[scale];
 	}
 	
 	private void string() {
@@ -228,29 +326,29 @@ public class TScanner {
     }
 	
 	private boolean atEnd() {
-		return current >= source.length();
+		return current >= end;
 	}
 	
 	private boolean match(char ex) {
 		if(atEnd()) return false;
-		if(source.charAt(current) != ex) return false;
+		if(chars[current] != ex) return false;
 		current++;
 		return true;
 	}
 	
 	private char advance() {
 		current++;
-		return source.charAt(current - 1); // return previous token
+		return chars[current - 1]; // return previous token
 	}
 	
 	private char peek() {
 		if(atEnd()) return '\0';
-		return source.charAt(current);
+		return chars[current];
 	}
 	
 	private char peekNext() {
-		if(current + 1 >= source.length()) return '\0';
-		return source.charAt(current + 1);
+		if(current + 1 >= end) return '\0';
+		return chars[current + 1];
 	}
 	
 	private boolean isAlpha(char ex) {
@@ -273,7 +371,6 @@ public class TScanner {
 	
 	private void receiveToken(TType type,
 			Object literal) {
-		String t = source.substring(start, current); // get lexeme of token
-		tokens.add(new TToken(type, t, literal, line));
+		tokens.add(type, start, current - start, line, literal);
 	}
 }
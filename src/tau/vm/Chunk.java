@@ -0,0 +1,41 @@
+package tau.vm;
+
+import java.util.*;
+
+public class Chunk {
+	public byte[] code = new byte[64];
+	public int[] lines = new int[64];
+	public int count = 0;
+	public Object[] constants;
+	private final List<Object> pool = 
+			new ArrayList<>();
+	private final Map<Object, Integer> interned =
+			new HashMap<>();
+	
+	public void write(int b, int line) {
+		if(count == code.length) {
+			code = Arrays.copyOf(code, count * 2);
+			lines = Arrays.copyOf(lines, count * 2);
+		}
+		code[count] = (byte)b;
+		lines[count] = line;
+		count++;
+	}
+	
+	public int addConstant(Object value) {
+		// Strings and numbers are shared, everything else (tokens carrying
+		// line information, prototypes) gets its own entry
+		boolean shared = value instanceof String || value instanceof Long ||
+				value instanceof Double;
+		if(shared && interned.containsKey(value))
+			return interned.get(value);
+		pool.add(value);
+		if(shared)
+			interned.put(value, pool.size() - 1);
+		return pool.size() - 1;
+	}
+	
+	public void seal() {
+		constants = pool.toArray();
+	}
+}
@@ -0,0 +1,32 @@
+package tau.vm;
+
+import java.util.*;
+import tau.interpreter.*;
+import tau.runtime.*;
+
+public class Closure implements ICallable {
+	public final Prototype prototype;
+	public final Upvalue[] upvalues;
+	private final VM vm;
+	
+	public Closure(VM vm, Prototype prototype) {
+		this.vm = vm;
+		this.prototype = prototype;
+		this.upvalues = new Upvalue[prototype.upvalueCount];
+	}
+	
+	@Override
+	public int arity() {
+		return prototype.arity;
+	}
+	
+	@Override
+	public Object call(Interpreter interpreter, List<Object> arguments) {
+		return vm.invoke(this, arguments);
+	}
+	
+	@Override
+	public String toString() {
+		return prototype.toString();
+	}
+}
@@ -0,0 +1,603 @@
+package tau.vm;
+
+import java.util.*;
+import tau.ast.*;
+import tau.literal.*;
+import tau.error.Error;
+import static tau.literal.TType.*;
+
+public class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+	private static final int MAX_SLOTS = 256;
+	private static final int MAX_SHORT = 65535;
+	private final Compiler enclosing;
+	private final Prototype function;
+	private final List<Local> locals =
+			new ArrayList<>();
+	private final List<UpvalueRef> upvalues =
+			new ArrayList<>();
+	private int scopeDepth = 0;
+	private int line = 1;
+	
+	private static class Local {
+		final String name;
+		int depth;
+		boolean captured = false;
+	
+		Local(String name, int depth) {
+			this.name = name;
+			this.depth = depth;
+		}
+	}
+	
+	private static class UpvalueRef {
+		final int index;
+		final boolean local;
+	
+		UpvalueRef(int index, boolean local) {
+			this.index = index;
+			this.local = local;
+		}
+	}
+	
+	private Compiler(Compiler enclosing, Prototype function) {
+		this.enclosing = enclosing;
+		this.function = function;
+		if(enclosing != null)
+			this.line = enclosing.line;
+		// Slot zero always holds the closure being run
+		locals.add(new Local("", 0));
+	}
+	
+	public static Prototype compile(List<Stmt> statements) {
+		Compiler compiler = new Compiler(null, new Prototype(null, 0));
+		for(Stmt statement : statements) {
+			compiler.compile(statement);
+		}
+		compiler.emitReturn();
+		return compiler.finish();
+	}
+	
+	@Override
+	public Void visitExpression(Stmt.Expression stmt) {
+		compile(stmt.expression);
+		emit(OpCode.POP);
+		return null;
+	}
+	
+	@Override
+	public Void visitDebug(Stmt.Debug stmt) {
+		compile(stmt.expression);
+		emit(OpCode.PRINT);
+		return null;
+	}
+	
+	@Override
+	public Void visitVar(Stmt.Var stmt) {
+		line = stmt.name.line;
+		declareVariable(stmt.name);
+		if(stmt.initializer != null) {
+			compile(stmt.initializer);
+		} else {
+			emit(OpCode.NIL);
+		}
+		defineVariable(stmt.name);
+		return null;
+	}
+	
+	@Override
+	public Void visitBlock(Stmt.Block stmt) {
+		beginScope();
+		for(Stmt statement : stmt.statements) {
+			compile(statement);
+		}
+		endScope();
+		return null;
+	}
+	
+	@Override
+	public Void visitIf(Stmt.If stmt) {
+		compile(stmt.condition);
+		int thenJump = emitJump(OpCode.JUMP_IF_FALSE);
+		emit(OpCode.POP);
+		compile(stmt.thenBranch);
+		int elseJump = emitJump(OpCode.JUMP);
+		patchJump(thenJump);
+		emit(OpCode.POP);
+		if(stmt.elseBranch != null)
+			compile(stmt.elseBranch);
+		patchJump(elseJump);
+		return null;
+	}
+	
+	@Override
+	public Void visitWhile(Stmt.While stmt) {
+		int loopStart = function.chunk.count;
+		compile(stmt.condition);
+		int exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+		emit(OpCode.POP);
+		compile(stmt.body);
+		emitLoop(loopStart);
+		patchJump(exitJump);
+		emit(OpCode.POP);
+		return null;
+	}
+	
+	@Override
+	public Void visitFunction(Stmt.Function stmt) {
+		line = stmt.name.line;
+		declareVariable(stmt.name);
+		markInitialized();
+		function(stmt.expr, stmt.name.lexeme);
+		defineVariable(stmt.name);
+		return null;
+	}
+	
+	@Override
+	public Void visitReturn(Stmt.Return stmt) {
+		line = stmt.keyword.line;
+		if(stmt.tailCall) {
+			Expr.Call call = (Expr.Call)stmt.value;
+			compile(call.callee);
+			for(Expr argument : call.arguments) {
+				compile(argument);
+			}
+			line = call.paren.line;
+			emit(OpCode.TAIL_CALL);
+			emit(checkSlots(call.arguments.size(), "Too many arguments on a call."));
+		} else if(stmt.value != null) {
+			compile(stmt.value);
+		} else {
+			emit(OpCode.NIL);
+		}
+		emit(OpCode.RETURN);
+		return null;
+	}
+	
+	@Override
+	public Void visitModule(Stmt.Module stmt) {
+		line = stmt.name.line;
+		declareVariable(stmt.name);
+		markInitialized();
+		for(Stmt.Function method : stmt.methods) {
+			function(method.expr, method.name.lexeme);
+		}
+		emit(OpCode.MODULE);
+		emitShort(makeConstant(stmt.name.lexeme));
+		emit(checkSlots(stmt.methods.size(), "Too many methods in one module."));
+		defineVariable(stmt.name);
+		return null;
+	}
+	
+	@Override
+	public Void visitMap(Stmt.Map stmt) {
+		line = stmt.name.line;
+		declareVariable(stmt.name);
+		markInitialized();
+		for(Stmt.MapValue value : stmt.values) {
+			thunk(value);
+		}
+		emit(OpCode.MAP);
+		emitShort(makeConstant(stmt.name));
+		emit(checkSlots(stmt.values.size(), "Too many values in one map."));
+		defineVariable(stmt.name);
+		return null;
+	}
+	
+	@Override
+	public Void visitMapValue(Stmt.MapValue stmt) {
+		return null;
+	}
+	
+	@Override
+	public Void visitImport(Stmt.Import stmt) {
+		emit(OpCode.IMPORT);
+		emitShort(makeConstant(stmt.expr.value));
+		emit(OpCode.POP);
+		return null;
+	}
+	
+	@Override
+	public Void visitBinary(Expr.Binary expr) {
+		compile(expr.left);
+		compile(expr.right);
+		line = expr.operator.line;
+		switch(expr.operator.type) {
+		case BANG_EQUAL:
+		{
+			emit(OpCode.NOT_EQUAL);
+			break;
+		}
+		case EQUAL_EQUAL:
+		{
+			emit(OpCode.EQUAL);
+			break;
+		}
+		case GREATER:
+		{
+			emit(OpCode.GREATER);
+			break;
+		}
+		case GREATER_EQUAL:
+		{
+			emit(OpCode.GREATER_EQUAL);
+			break;
+		}
+		case LESS:
+		{
+			emit(OpCode.LESS);
+			break;
+		}
+		case LESS_EQUAL:
+		{
+			emit(OpCode.LESS_EQUAL);
+			break;
+		}
+		case PLUS:
+		{
+			emit(OpCode.ADD);
+			break;
+		}
+		case MINUS:
+		{
+			emit(OpCode.SUBTRACT);
+			break;
+		}
+		case SLASH:
+		{
+			emit(OpCode.DIVIDE);
+			break;
+		}
+		case STAR:
+		{
+			emit(OpCode.MULTIPLY);
+			break;
+		}
+		default:
+		{
+			// The interpreter evaluates both sides and yields nil
+			emit(OpCode.POP);
+			emit(OpCode.POP);
+			emit(OpCode.NIL);
+			break;
+		}
+		}
+		return null;
+	}
+	
+	@Override
+	public Void visitGrouping(Expr.Grouping expr) {
+		compile(expr.expression);
+		return null;
+	}
+	
+	@Override
+	public Void visitLiteral(Expr.Literal expr) {
+		if(expr.value == null) {
+			emit(OpCode.NIL);
+		} else if(expr.value.equals(true)) {
+			emit(OpCode.TRUE);
+		} else if(expr.value.equals(false)) {
+			emit(OpCode.FALSE);
+		} else {
+			emit(OpCode.CONSTANT);
+			emitShort(makeConstant(expr.value));
+		}
+		return null;
+	}
+	
+	@Override
+	public Void visitUnary(Expr.Unary expr) {
+		compile(expr.right);
+		line = expr.operator.line;
+		if(expr.operator.type == MINUS) {
+			emit(OpCode.NEGATE);
+		} else if(expr.operator.type == BANG) {
+			emit(OpCode.NOT);
+		} else {
+			emit(OpCode.POP);
+			emit(OpCode.NIL);
+		}
+		return null;
+	}
+	
+	@Override
+	public Void visitVariable(Expr.Variable expr) {
+		line = expr.name.line;
+		int slot = resolveLocal(expr.name.lexeme);
+		if(slot != -1) {
+			emit(OpCode.GET_LOCAL);
+			emit(slot);
+			return null;
+		}
+		slot = resolveUpvalue(expr.name.lexeme);
+		if(slot != -1) {
+			emit(OpCode.GET_UPVALUE);
+			emit(slot);
+			return null;
+		}
+		emit(OpCode.GET_GLOBAL);
+		// The node is the operand so the VM caches the global's index on it
+		emitShort(makeConstant(expr));
+		return null;
+	}
+	
+	@Override
+	public Void visitAssign(Expr.Assign expr) {
+		compile(expr.value);
+		line = expr.name.line;
+		int slot = resolveLocal(expr.name.lexeme);
+		if(slot != -1) {
+			emit(OpCode.SET_LOCAL);
+			emit(slot);
+			return null;
+		}
+		slot = resolveUpvalue(expr.name.lexeme);
+		if(slot != -1) {
+			emit(OpCode.SET_UPVALUE);
+			emit(slot);
+			return null;
+		}
+		emit(OpCode.SET_GLOBAL);
+		emitShort(makeConstant(expr));
+		return null;
+	}
+	
+	@Override
+	public Void visitLogical(Expr.Logical expr) {
+		compile(expr.left);
+		line = expr.operator.line;
+		if(expr.operator.type == OR) {
+			int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+			int endJump = emitJump(OpCode.JUMP);
+			patchJump(elseJump);
+			emit(OpCode.POP);
+			compile(expr.right);
+			patchJump(endJump);
+		} else {
+			int endJump = emitJump(OpCode.JUMP_IF_FALSE);
+			emit(OpCode.POP);
+			compile(expr.right);
+			patchJump(endJump);
+		}
+		return null;
+	}
+	
+	@Override
+	public Void visitCall(Expr.Call expr) {
+		compile(expr.callee);
+		for(Expr argument : expr.arguments) {
+			compile(argument);
+		}
+		line = expr.paren.line;
+		emit(OpCode.CALL);
+		emit(checkSlots(expr.arguments.size(), "Too many arguments on a call."));
+		return null;
+	}
+	
+	@Override
+	public Void visitGet(Expr.Get expr) {
+		compile(expr.object);
+		line = expr.name.line;
+		emit(OpCode.GET_PROPERTY);
+		// The node itself is the operand so the VM shares its inline cache
+		emitShort(makeConstant(expr));
+		return null;
+	}
+	
+	@Override
+	public Void visitSet(Expr.Set expr) {
+		compile(expr.object);
+		compile(expr.value);
+		line = expr.name.line;
+		emit(OpCode.SET_PROPERTY);
+		emitShort(makeConstant(expr.name));
+		return null;
+	}
+	
+	@Override
+	public Void visitArray(Expr.Array expr) {
+		for(Expr element : expr.elements) {
+			compile(element);
+		}
+		line = expr.brack.line;
+		if(expr.elements.size() > MAX_SHORT) {
+			Error.error(line, "Too many elements in one list.");
+		}
+		emit(OpCode.ARRAY);
+		emitShort(expr.elements.size());
+		return null;
+	}
+	
+	@Override
+	public Void visitFunction(Expr.Function expr) {
+		function(expr, null);
+		return null;
+	}
+	
+	// Helpers
+	
+	private void compile(Stmt stmt) {
+		stmt.accept(this);
+	}
+	
+	private void compile(Expr expr) {
+		expr.accept(this);
+	}
+	
+	private void function(Expr.Function declaration, String name) {
+		Compiler compiler = new Compiler(this,
+				new Prototype(name, declaration.parameters.size()));
+		compiler.beginScope();
+		for(TToken param : declaration.parameters) {
+			compiler.declareVariable(param);
+			compiler.markInitialized();
+		}
+		for(Stmt statement : declaration.body) {
+			compiler.compile(statement);
+		}
+		compiler.emitReturn();
+		Prototype prototype = compiler.finish();
+		emit(OpCode.CLOSURE);
+		emitShort(makeConstant(prototype));
+		for(UpvalueRef upvalue : compiler.upvalues) {
+			emit(upvalue.local ? 1 : 0);
+			emit(upvalue.index);
+		}
+	}
+	
+	private void thunk(Stmt.MapValue value) {
+		// Map values are evaluated lazily against the globals, exactly like
+		// the interpreter evaluates them at each access
+		Compiler compiler = new Compiler(null, new Prototype(value.name.lexeme, 0));
+		compiler.line = value.name.line;
+		compiler.compile(value.value);
+		compiler.emit(OpCode.RETURN);
+		Prototype prototype = compiler.finish();
+		emit(OpCode.CLOSURE);
+		emitShort(makeConstant(prototype));
+	}
+	
+	private Prototype finish() {
+		function.upvalueCount = upvalues.size();
+		function.chunk.seal();
+		return function;
+	}
+	
+	private void declareVariable(TToken name) {
+		if(scopeDepth == 0)
+			return;
+		if(locals.size() == MAX_SLOTS) {
+			Error.error(name, "Too many local variables in function.");
+			return;
+		}
+		locals.add(new Local(name.lexeme, -1));
+	}
+	
+	private void markInitialized() {
+		if(scopeDepth == 0)
+			return;
+		locals.get(locals.size() - 1).depth = scopeDepth;
+	}
+	
+	private void defineVariable(TToken name) {
+		if(scopeDepth > 0) {
+			markInitialized();
+			return;
+		}
+		emit(OpCode.DEFINE_GLOBAL);
+		emitShort(makeConstant(name.lexeme));
+	}
+	
+	// Uninitialized locals count too: the Analyzer already rejects them in
+	// their own initializer, so a hit here is a closure naming the variable
+	// it is being assigned to
+	private int resolveLocal(String name) {
+		for(int i = locals.size() - 1; i > 0; i--) {
+			Local local = locals.get(i);
+			if(local.name.equals(name))
+				return i;
+		}
+		return -1;
+	}
+	
+	private int resolveUpvalue(String name) {
+		if(enclosing == null)
+			return -1;
+		int local = enclosing.resolveLocal(name);
+		if(local != -1) {
+			enclosing.locals.get(local).captured = true;
+			return addUpvalue(local, true);
+		}
+		int upvalue = enclosing.resolveUpvalue(name);
+		if(upvalue != -1)
+			return addUpvalue(upvalue, false);
+		return -1;
+	}
+	
+	private int addUpvalue(int index, boolean local) {
+		for(int i = 0; i < upvalues.size(); i++) {
+			UpvalueRef upvalue = upvalues.get(i);
+			if(upvalue.index == index && upvalue.local == local)
+				return i;
+		}
+		if(upvalues.size() == MAX_SLOTS) {
+			Error.error(line, "Too many closure variables in function.");
+			return 0;
+		}
+		upvalues.add(new UpvalueRef(index, local));
+		return upvalues.size() - 1;
+	}
+	
+	private void beginScope() {
+		scopeDepth++;
+	}
+	
+	private void endScope() {
+		scopeDepth--;
+		while(locals.size() > 1 &&
+				locals.get(locals.size() - 1).depth > scopeDepth) {
+			if(locals.get(locals.size() - 1).captured) {
+				emit(OpCode.CLOSE_UPVALUE);
+			} else {
+				emit(OpCode.POP);
+			}
+			locals.remove(locals.size() - 1);
+		}
+	}
+	
+	private int checkSlots(int count, String message) {
+		if(count >= MAX_SLOTS) {
+			Error.error(line, message);
+			return 0;
+		}
+		return count;
+	}
+	
+	private int makeConstant(Object value) {
+		int index = function.chunk.addConstant(value);
+		if(index > MAX_SHORT) {
+			Error.error(line, "Too many constants in one chunk.");
+			return 0;
+		}
+		return index;
+	}
+	
+	private void emit(int b) {
+		function.chunk.write(b, line);
+	}
+	
+	private void emitShort(int value) {
+		emit((value >> 8) & 0xff);
+		emit(value & 0xff);
+	}
+	
+	private int emitJump(int op) {
+		emit(op);
+		emit(0xff);
+		emit(0xff);
+		return function.chunk.count - 2;
+	}
+	
+	private void patchJump(int offset) {
+		int jump = function.chunk.count - offset - 2;
+		if(jump > MAX_SHORT) {
+			Error.error(line, "Too much code to jump over.");
+		}
+		function.chunk.code[offset] = (byte)((jump >> 8) & 0xff);
+		function.chunk.code[offset + 1] = (byte)(jump & 0xff);
+	}
+	
+	private void emitLoop(int loopStart) {
+		emit(OpCode.LOOP);
+		int offset = function.chunk.count - loopStart + 2;
+		if(offset > MAX_SHORT) {
+			Error.error(line, "Loop body too large.");
+		}
+		emitShort(offset);
+	}
+	
+	private void emitReturn() {
+		emit(OpCode.NIL);
+		emit(OpCode.RETURN);
+	}
+}
@@ -0,0 +1,45 @@
+package tau.vm;
+
+public final class OpCode {
+	public static final byte CONSTANT = 0;
+	public static final byte NIL = 1;
+	public static final byte TRUE = 2;
+	public static final byte FALSE = 3;
+	public static final byte POP = 4;
+	public static final byte GET_LOCAL = 5;
+	public static final byte SET_LOCAL = 6;
+	public static final byte GET_GLOBAL = 7;
+	public static final byte DEFINE_GLOBAL = 8;
+	public static final byte SET_GLOBAL = 9;
+	public static final byte GET_UPVALUE = 10;
+	public static final byte SET_UPVALUE = 11;
+	public static final byte GET_PROPERTY = 12;
+	public static final byte EQUAL = 13;
+	public static final byte NOT_EQUAL = 14;
+	public static final byte GREATER = 15;
+	public static final byte GREATER_EQUAL = 16;
+	public static final byte LESS = 17;
+	public static final byte LESS_EQUAL = 18;
+	public static final byte ADD = 19;
+	public static final byte SUBTRACT = 20;
+	public static final byte MULTIPLY = 21;
+	public static final byte DIVIDE = 22;
+	public static final byte NOT = 23;
+	public static final byte NEGATE = 24;
+	public static final byte PRINT = 25;
+	public static final byte JUMP = 26;
+	public static final byte JUMP_IF_FALSE = 27;
+	public static final byte LOOP = 28;
+	public static final byte CALL = 29;
+	public static final byte CLOSURE = 30;
+	public static final byte CLOSE_UPVALUE = 31;
+	public static final byte RETURN = 32;
+	public static final byte ARRAY = 33;
+	public static final byte MODULE = 34;
+	public static final byte MAP = 35;
+	public static final byte IMPORT = 36;
+	public static final byte SET_PROPERTY = 37;
+	public static final byte TAIL_CALL = 38;
+	
+	private OpCode() {}
+}
@@ -0,0 +1,20 @@
+package tau.vm;
+
+public class Prototype {
+	public final String name;
+	public final int arity;
+	public final Chunk chunk = new Chunk();
+	public int upvalueCount = 0;
+	
+	public Prototype(String name, int arity) {
+		this.name = name;
+		this.arity = arity;
+	}
+	
+	@Override
+	public String toString() {
+		if(name == null)
+			return "<fn>";
+		return "<fn " + name + ">";
+	}
+}
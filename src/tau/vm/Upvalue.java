@@ -0,0 +1,13 @@
+package tau.vm;
+
+public class Upvalue {
+	// Index of the captured stack slot while the variable is still live,
+	// -1 once it has been closed over
+	public int location;
+	public Object closed;
+	public Upvalue next;
+	
+	public Upvalue(int location) {
+		this.location = location;
+	}
+}
@@ -0,0 +1,649 @@
+package tau.vm;
+
+import java.util.*;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import tau.Tau;
+import tau.analyzer.Analyzer;
+import tau.ast.*;
+import tau.core.Array;
+import tau.error.Error;
+import tau.interpreter.Interpreter;
+import tau.literal.*;
+import tau.optimizer.Hoister;
+import tau.optimizer.Inliner;
+import tau.optimizer.Optimizer;
+import tau.parser.*;
+import tau.runtime.*;
+import tau.runtime.Module;
+import tau.scanner.*;
+
+public class VM {
+	private static final int STACK_INITIAL = 1024;
+	private static final int FRAMES_INITIAL = 64;
+	// How deep calls may nest before it's reported as a stack overflow,
+	// -Dtau.frames=N overrides it
+	private static final int FRAMES_MAX =
+			Integer.getInteger("tau.frames", 1 << 20);
+	private final Interpreter interpreter;
+	private final Environment globals;
+	// Both stacks grow on demand up to FRAMES_MAX frames, so call depth
+	// never depends on the Java thread stack
+	private Object[] stack =
+			new Object[STACK_INITIAL];
+	private int sp = 0;
+	private CallFrame[] frames =
+			new CallFrame[FRAMES_INITIAL];
+	private int frameCount = 0;
+	private Upvalue openUpvalues = null;
+	
+	private static class CallFrame {
+		Closure closure;
+		int ip;
+		int base;
+	}
+	
+	public VM(Interpreter interpreter) {
+		this.interpreter = interpreter;
+		this.globals = interpreter.globals;
+	}
+	
+	public void interpret(List<Stmt> statements) {
+		Prototype script = Compiler.compile(statements);
+		if(Tau.hadError)
+			return;
+		try {
+			Closure closure = new Closure(this, script);
+			stack[sp++] = closure;
+			pushFrame(closure, sp - 1, 0);
+			run(frameCount - 1);
+		} catch (Interpreter.RuntimeError error) {
+			Error.runtimeError(error);
+			reset();
+		}
+	}
+	
+	public Object invoke(Closure closure, List<Object> arguments) {
+		reserve(sp + arguments.size() + 1);
+		int base = sp;
+		stack[sp++] = closure;
+		for(Object argument : arguments) {
+			stack[sp++] = argument;
+		}
+		pushFrame(closure, base, 0);
+		return run(frameCount - 1);
+	}
+	
+	private Object run(int exitDepth) {
+		CallFrame frame = frames[frameCount - 1];
+		Chunk chunk = frame.closure.prototype.chunk;
+		byte[] code = chunk.code;
+		Object[] constants = chunk.constants;
+		Upvalue[] upvalues = frame.closure.upvalues;
+		Object[] stack = this.stack;
+		int base = frame.base;
+		int ip = frame.ip;
+		for(;;) {
+			switch(code[ip++]) {
+			case OpCode.CONSTANT:
+			{
+				stack[sp++] = constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+				ip += 2;
+				break;
+			}
+			case OpCode.NIL:
+			{
+				stack[sp++] = null;
+				break;
+			}
+			case OpCode.TRUE:
+			{
+				stack[sp++] = true;
+				break;
+			}
+			case OpCode.FALSE:
+			{
+				stack[sp++] = false;
+				break;
+			}
+			case OpCode.POP:
+			{
+				stack[--sp] = null;
+				break;
+			}
+			case OpCode.GET_LOCAL:
+			{
+				stack[sp++] = stack[base + (code[ip++] & 0xff)];
+				break;
+			}
+			case OpCode.SET_LOCAL:
+			{
+				stack[base + (code[ip++] & 0xff)] = stack[sp - 1];
+				break;
+			}
+			case OpCode.GET_GLOBAL:
+			{
+				Expr.Variable site = (Expr.Variable)constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+				ip += 2;
+				stack[sp++] = globals.get(site);
+				break;
+			}
+			case OpCode.DEFINE_GLOBAL:
+			{
+				String name = (String)constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+				ip += 2;
+				globals.define(name, stack[--sp]);
+				stack[sp] = null;
+				break;
+			}
+			case OpCode.SET_GLOBAL:
+			{
+				Expr.Assign site = (Expr.Assign)constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+				ip += 2;
+				globals.assign(site, stack[sp - 1]);
+				break;
+			}
+			case OpCode.GET_UPVALUE:
+			{
+				Upvalue upvalue = upvalues[code[ip++] & 0xff];
+				stack[sp++] = upvalue.location >= 0 ?
+						stack[upvalue.location] : upvalue.closed;
+				break;
+			}
+			case OpCode.SET_UPVALUE:
+			{
+				Upvalue upvalue = upvalues[code[ip++] & 0xff];
+				if(upvalue.location >= 0) {
+					stack[upvalue.location] = stack[sp - 1];
+				} else {
+					upvalue.closed = stack[sp - 1];
+				}
+				break;
+			}
+			case OpCode.GET_PROPERTY:
+			{
+				Expr.Get site = (Expr.Get)constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+				ip += 2;
+				Object object = stack[sp - 1];
+				if(object instanceof ModuleInstance) {
+					stack[sp - 1] = getProperty((ModuleInstance)object, site);
+				} else if(object instanceof MapInstance) {
+					// Map values are thunks, run them as a zero argument call
+					Object value = site.cache.lookup(object);
+					if(value == InlineCache.MISS) {
+						value = ((MapInstance)object).get(site.name);
+						site.cache.update(object, value);
+					}
+					Closure thunk = (Closure)value;
+					stack[sp - 1] = thunk;
+					frame.ip = ip;
+					frame = pushFrame(thunk, sp - 1, chunk.lines[ip - 1]);
+					stack = this.stack;
+					chunk = thunk.prototype.chunk;
+					code = chunk.code;
+					constants = chunk.constants;
+					upvalues = thunk.upvalues;
+					base = frame.base;
+					ip = 0;
+				} else {
+					throw new Interpreter.RuntimeError(site.name,
+							"Only instances have properties.");
+				}
+				break;
+			}
+			case OpCode.SET_PROPERTY:
+			{
+				TToken name = (TToken)constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+				ip += 2;
+				Object object = stack[sp - 2];
+				if(!(object instanceof ModuleInstance)) {
+					throw new Interpreter.RuntimeError(name,
+							"Only instances have fields.");
+				}
+				Object value = stack[--sp];
+				((ModuleInstance)object).set(name, value);
+				stack[sp - 1] = value;
+				break;
+			}
+			case OpCode.EQUAL:
+			{
+				Object b = stack[--sp];
+				stack[sp] = null;
+				stack[sp - 1] = isEqual(stack[sp - 1], b);
+				break;
+			}
+			case OpCode.NOT_EQUAL:
+			{
+				Object b = stack[--sp];
+				stack[sp] = null;
+				stack[sp - 1] = !isEqual(stack[sp - 1], b);
+				break;
+			}
+			case OpCode.GREATER:
+			{
+				Object b = stack[--sp];
+				Object a = stack[sp - 1];
+				checkNumberOperands(a, b, chunk.lines[ip - 1]);
+				stack[sp - 1] = Numbers.greater(a, b);
+				break;
+			}
+			case OpCode.GREATER_EQUAL:
+			{
+				Object b = stack[--sp];
+				Object a = stack[sp - 1];
+				checkNumberOperands(a, b, chunk.lines[ip - 1]);
+				stack[sp - 1] = Numbers.greaterEqual(a, b);
+				break;
+			}
+			case OpCode.LESS:
+			{
+				Object b = stack[--sp];
+				Object a = stack[sp - 1];
+				checkNumberOperands(a, b, chunk.lines[ip - 1]);
+				stack[sp - 1] = Numbers.less(a, b);
+				break;
+			}
+			case OpCode.LESS_EQUAL:
+			{
+				Object b = stack[--sp];
+				Object a = stack[sp - 1];
+				checkNumberOperands(a, b, chunk.lines[ip - 1]);
+				stack[sp - 1] = Numbers.lessEqual(a, b);
+				break;
+			}
+			case OpCode.ADD:
+			{
+				Object b = stack[--sp];
+				Object a = stack[sp - 1];
+				stack[sp] = null;
+				if(Numbers.isNumber(a) && Numbers.isNumber(b)) {
+					stack[sp - 1] = Numbers.add(a, b);
+				} else if(a instanceof String && b instanceof String) {
+					stack[sp - 1] = (String)a + (String)b;
+				} else {
+					throw error(chunk.lines[ip - 1],
+							"Operands must be two numbers or two strings.");
+				}
+				break;
+			}
+			case OpCode.SUBTRACT:
+			{
+				Object b = stack[--sp];
+				Object a = stack[sp - 1];
+				if(!Numbers.isNumber(b)) {
+					throw error(chunk.lines[ip - 1], "Operand must be a number.");
+				}
+				stack[sp - 1] = Numbers.subtract(a, b);
+				break;
+			}
+			case OpCode.MULTIPLY:
+			{
+				Object b = stack[--sp];
+				Object a = stack[sp - 1];
+				checkNumberOperands(a, b, chunk.lines[ip - 1]);
+				stack[sp - 1] = Numbers.multiply(a, b);
+				break;
+			}
+			case OpCode.DIVIDE:
+			{
+				Object b = stack[--sp];
+				Object a = stack[sp - 1];
+				checkNumberOperands(a, b, chunk.lines[ip - 1]);
+				stack[sp - 1] = Numbers.divide(a, b);
+				break;
+			}
+			case OpCode.NOT:
+			{
+				stack[sp - 1] = !truthy(stack[sp - 1]);
+				break;
+			}
+			case OpCode.NEGATE:
+			{
+				stack[sp - 1] = Numbers.negate(stack[sp - 1]);
+				break;
+			}
+			case OpCode.PRINT:
+			{
+				System.out.println(Interpreter.stringify(stack[--sp]));
+				stack[sp] = null;
+				break;
+			}
+			case OpCode.JUMP:
+			{
+				ip += (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)) + 2;
+				break;
+			}
+			case OpCode.JUMP_IF_FALSE:
+			{
+				if(truthy(stack[sp - 1])) {
+					ip += 2;
+				} else {
+					ip += (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)) + 2;
+				}
+				break;
+			}
+			case OpCode.LOOP:
+			{
+				ip -= (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)) - 2;
+				break;
+			}
+			case OpCode.TAIL_CALL:
+			case OpCode.CALL:
+			{
+				int argc = code[ip] & 0xff;
+				// A tail call of the running closure reuses its frame,
+				// anything else is an ordinary call, followed by the RETURN
+				// for a tail call
+				if(code[ip - 1] == OpCode.TAIL_CALL &&
+						stack[sp - argc - 1] == frame.closure &&
+						argc == frame.closure.prototype.arity) {
+					closeUpvalues(base);
+					System.arraycopy(stack, sp - argc - 1, stack, base, argc + 1);
+					for(int i = base + argc + 1; i < sp; i++) {
+						stack[i] = null;
+					}
+					sp = base + argc + 1;
+					ip = 0;
+					break;
+				}
+				ip++;
+				Object callee = stack[sp - argc - 1];
+				if(callee instanceof Closure) {
+					Closure closure = (Closure)callee;
+					if(argc != closure.prototype.arity) {
+						throw error(chunk.lines[ip - 1], "Expected " +
+								closure.prototype.arity + " arguments but got " +
+								argc + ".");
+					}
+					frame.ip = ip;
+					frame = pushFrame(closure, sp - argc - 1, chunk.lines[ip - 1]);
+					stack = this.stack;
+					chunk = closure.prototype.chunk;
+					code = chunk.code;
+					constants = chunk.constants;
+					upvalues = closure.upvalues;
+					base = frame.base;
+					ip = 0;
+				} else {
+					Object result = callNative(callee, argc, chunk.lines[ip - 1]);
+					// Natives may call back into closures and grow the stack
+					stack = this.stack;
+					for(int i = sp - argc - 1; i < sp; i++) {
+						stack[i] = null;
+					}
+					sp -= argc + 1;
+					stack[sp++] = result;
+				}
+				break;
+			}
+			case OpCode.CLOSURE:
+			{
+				Prototype prototype = (Prototype)constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+				ip += 2;
+				Closure closure = new Closure(this, prototype);
+				for(int i = 0; i < prototype.upvalueCount; i++) {
+					boolean local = code[ip++] == 1;
+					int index = code[ip++] & 0xff;
+					closure.upvalues[i] = local ?
+							captureUpvalue(base + index) : upvalues[index];
+				}
+				stack[sp++] = closure;
+				break;
+			}
+			case OpCode.CLOSE_UPVALUE:
+			{
+				closeUpvalues(sp - 1);
+				stack[--sp] = null;
+				break;
+			}
+			case OpCode.RETURN:
+			{
+				Object result = stack[--sp];
+				closeUpvalues(base);
+				for(int i = base; i <= sp; i++) {
+					stack[i] = null;
+				}
+				sp = base;
+				frameCount--;
+				if(frameCount == exitDepth)
+					return result;
+				stack[sp++] = result;
+				frame = frames[frameCount - 1];
+				chunk = frame.closure.prototype.chunk;
+				code = chunk.code;
+				constants = chunk.constants;
+				upvalues = frame.closure.upvalues;
+				base = frame.base;
+				ip = frame.ip;
+				break;
+			}
+			case OpCode.ARRAY:
+			{
+				int count = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+				ip += 2;
+				List<Object> elements = new ArrayList<>(count);
+				for(int i = sp - count; i < sp; i++) {
+					elements.add(stack[i]);
+					stack[i] = null;
+				}
+				sp -= count;
+				stack[sp++] = new Array(elements);
+				break;
+			}
+			case OpCode.MODULE:
+			{
+				String name = (String)constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+				int count = code[ip + 2] & 0xff;
+				ip += 3;
+				Map<String, ICallable> methods = new HashMap<>();
+				for(int i = sp - count; i < sp; i++) {
+					Closure method = (Closure)stack[i];
+					methods.put(method.prototype.name, method);
+					stack[i] = null;
+				}
+				sp -= count;
+				stack[sp++] = new Module(name, methods);
+				break;
+			}
+			case OpCode.MAP:
+			{
+				TToken name = (TToken)constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+				int count = code[ip + 2] & 0xff;
+				ip += 3;
+				Map<String, Object> values = new HashMap<>();
+				for(int i = sp - count; i < sp; i++) {
+					Closure value = (Closure)stack[i];
+					values.put(value.prototype.name, value);
+					stack[i] = null;
+				}
+				sp -= count;
+				stack[sp++] = new MapInstance(name, values);
+				break;
+			}
+			case OpCode.IMPORT:
+			{
+				String path = (String)constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+				ip += 2;
+				Prototype script = processImport(path);
+				stack = this.stack;
+				if(script == null) {
+					stack[sp++] = null;
+					break;
+				}
+				Closure closure = new Closure(this, script);
+				stack[sp++] = closure;
+				frame.ip = ip;
+				frame = pushFrame(closure, sp - 1, chunk.lines[ip - 1]);
+				stack = this.stack;
+				chunk = script.chunk;
+				code = chunk.code;
+				constants = chunk.constants;
+				upvalues = closure.upvalues;
+				base = frame.base;
+				ip = 0;
+				break;
+			}
+			}
+		}
+	}
+	
+	// Helpers
+	
+	private CallFrame pushFrame(Closure closure, int base, int line) {
+		if(frameCount == FRAMES_MAX) {
+			throw error(line, "Stack overflow.");
+		}
+		if(frameCount == frames.length) {
+			frames = Arrays.copyOf(frames, Math.min(frameCount * 2, FRAMES_MAX));
+		}
+		if(frames[frameCount] == null) {
+			frames[frameCount] = new CallFrame();
+		}
+		// No instruction pushes more than one value, so a frame never needs
+		// more stack than its code has bytes
+		reserve(sp + closure.prototype.chunk.count);
+		CallFrame frame = frames[frameCount++];
+		frame.closure = closure;
+		frame.ip = 0;
+		frame.base = base;
+		return frame;
+	}
+	
+	private void reserve(int size) {
+		if(size >= stack.length) {
+			stack = Arrays.copyOf(stack, Math.max(size + 1, stack.length * 2));
+		}
+	}
+	
+	private Object getProperty(ModuleInstance instance, Expr.Get site) {
+		Object key = instance.cacheKey();
+		if(key == null)
+			return instance.get(site.name);
+		Object property = site.cache.lookup(key);
+		if(property == InlineCache.MISS) {
+			property = instance.lookup(site.name);
+			site.cache.update(key, property);
+		}
+		return instance.read(property);
+	}
+	
+	private Object callNative(Object callee, int argc, int line) {
+		if(!(callee instanceof ICallable)) {
+			throw error(line, "Can only call functions and classes.");
+		}
+		ICallable called = (ICallable)callee;
+		if(argc != called.arity()) {
+			throw error(line, "Expected " + called.arity() +
+					" arguments but got " + argc + ".");
+		}
+		int first = sp - argc;
+		switch(argc) {
+		case 0:
+			return called.call0(interpreter);
+		case 1:
+			return called.call1(interpreter, stack[first]);
+		case 2:
+			return called.call2(interpreter, stack[first], stack[first + 1]);
+		case 3:
+			return called.call3(interpreter, stack[first], stack[first + 1],
+					stack[first + 2]);
+		case 4:
+			return called.call4(interpreter, stack[first], stack[first + 1],
+					stack[first + 2], stack[first + 3]);
+		}
+		List<Object> arguments = new ArrayList<>(argc);
+		for(int i = first; i < sp; i++) {
+			arguments.add(stack[i]);
+		}
+		return called.call(interpreter, arguments);
+	}
+	
+	private Upvalue captureUpvalue(int location) {
+		Upvalue previous = null;
+		Upvalue upvalue = openUpvalues;
+		while(upvalue != null && upvalue.location > location) {
+			previous = upvalue;
+			upvalue = upvalue.next;
+		}
+		if(upvalue != null && upvalue.location == location)
+			return upvalue;
+		Upvalue created = new Upvalue(location);
+		created.next = upvalue;
+		if(previous == null) {
+			openUpvalues = created;
+		} else {
+			previous.next = created;
+		}
+		return created;
+	}
+	
+	private void closeUpvalues(int last) {
+		while(openUpvalues != null &&
+				openUpvalues.location >= last) {
+			Upvalue upvalue = openUpvalues;
+			upvalue.closed = stack[upvalue.location];
+			upvalue.location = -1;
+			openUpvalues = upvalue.next;
+		}
+	}
+	
+	private Prototype processImport(String path) {
+		if(!Files.isRegularFile(Paths.get(path)))
+			return null;
+		try {
+			List<Stmt> statements =
+					new SourceParser(Source.load(path)).parse();
+			if(Tau.hadError)
+				return null;
+			new Inliner(false).inline(statements);
+			new Hoister(false).hoist(statements);
+			Analyzer ana = new Analyzer(false);
+			ana.resolve(statements);
+			if(Tau.hadError)
+				return null;
+			new Optimizer().optimize(statements);
+			Prototype script = Compiler.compile(statements);
+			if(Tau.hadError)
+				return null;
+			return script;
+		} catch (IOException e) {
+			Error.error(0, "Failed to process import.");
+			return null;
+		}
+	}
+	
+	private void reset() {
+		// Let go of whatever a deep recursion grew the stacks to
+		stack = new Object[STACK_INITIAL];
+		sp = 0;
+		frames = new CallFrame[FRAMES_INITIAL];
+		frameCount = 0;
+		openUpvalues = null;
+	}
+	
+	private void checkNumberOperands(Object left, Object right, int line) {
+		if (Numbers.isNumber(left) && Numbers.isNumber(right)) return;
+		throw error(line, "Operands must be numbers.");
+	}
+	
+	private Interpreter.RuntimeError error(int line, String message) {
+		return new Interpreter.RuntimeError(
+				new TToken(TType.EOF, "", null, line), message);
+	}
+	
+	private boolean isEqual(Object a, Object b) {
+		if (a == null && b == null) return true;
+		if (a == null) return false;
+		if (Numbers.isNumber(a) && Numbers.isNumber(b))
+			return Numbers.equal(a, b);
+		return a.equals(b);
+	}
+	
+	private boolean truthy(Object object) {
+		if(object == null) return false;
+		if(object instanceof Boolean) return (boolean)object;
+		return true;
+	}
+}
@@ -0,0 +1,36 @@
+#!/bin/bash
+# Runs each test/*/*.tau in every mode and compares its output, errors
+# included, against the .out next to it. A .modes file next to a script
+# lists the only modes it runs in, "default" being no flag at all.
+# Usage: test/run.sh CLASSPATH
+cp=${1:?usage: test/run.sh CLASSPATH}
+cd "$(dirname "$0")" || exit 1
+work=$(mktemp -d) || exit 1
+trap 'rm -rf "$work"' EXIT
+status=0
+for script in */*.tau; do
+	expected=${script%.tau}.out
+	modes="default --specialize --jit --vm tauc"
+	if [ -f "${script%.tau}.modes" ]; then
+		modes=$(cat "${script%.tau}.modes")
+	fi
+	for mode in $modes; do
+		if [ $mode = tauc ]; then
+			# Compile errors come from tauc, anything else from the jar
+			actual=$(cd "$(dirname "$script")" &&
+					java -cp "$cp" tau.Tauc "$(basename "$script")" "$work/test.jar" 2>&1 &&
+					java -jar "$work/test.jar" x 2>&1)
+		else
+			flag=$mode
+			[ $mode = default ] && flag=
+			actual=$(cd "$(dirname "$script")" &&
+					java -cp "$cp" tau.Tau $flag "$(basename "$script")" x 2>&1)
+		fi
+		if [ "$actual" != "$(cat "$expected")" ]; then
+			echo "FAIL $script $mode"
+			status=1
+		fi
+	done
+done
+[ $status = 0 ] && echo "ok"
+exit $status